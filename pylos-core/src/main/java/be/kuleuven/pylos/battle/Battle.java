@@ -36,7 +36,7 @@ public class Battle {
 
         for (int i = 0; i < runs / 2; i++) {
             if (print) System.out.print("*");
-            PylosBoard board = new PylosBoard();
+            PylosBoard board = PylosBoard.getThreadBoard();
             PylosGame game = new PylosGame(board, p1, p2, random);
             long startTime = System.currentTimeMillis();
             try{
@@ -71,7 +71,7 @@ public class Battle {
 
         for (int i = 0; i < runs / 2; i++) {
             if (print) System.out.print("*");
-            PylosBoard board = new PylosBoard();
+            PylosBoard board = PylosBoard.getThreadBoard();
             PylosGame game = new PylosGame(board, p2, p1, random);
             long startTime = System.currentTimeMillis();
             try {
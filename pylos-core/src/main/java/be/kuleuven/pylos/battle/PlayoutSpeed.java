@@ -0,0 +1,63 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.game.*;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of the board updates of a search: random playouts on PylosGameSimulator from the empty standard
+ * board, every move generated, applied and at the end of the playout undone again (so the board keeps its square
+ * counts, hash and masks up to date in both directions). The first playouts are not measured, the JIT compiles the
+ * board first.
+ */
+public class PlayoutSpeed {
+
+    private static final int MAX_PLAYOUT_LENGTH = 256;     // moves, random play can take very long to complete a game
+
+    public static double measure(int nPlayouts) {
+        return measure(nPlayouts, true);
+    }
+
+    /**
+     * returns the time of a move of a playout (generate, apply and undo) in ns
+     *
+     * @param nPlayouts
+     * @param print
+     * @return
+     */
+    public static double measure(int nPlayouts, boolean print) {
+        PylosGameSimulator simulator = new PylosGameSimulator(PylosGameState.MOVE, PylosPlayerColor.LIGHT, new PylosBoard());
+        int[] moves = new int[PylosBoard.MAX_MOVES];
+        Random random = new Random(0);
+        playouts(simulator, moves, random, nPlayouts / 10 + 1);
+
+        long start = System.nanoTime();
+        long nMoves = playouts(simulator, moves, random, nPlayouts);
+        long time = System.nanoTime() - start;
+        double nsPerMove = (double) time / nMoves;
+        if (print) System.out.printf("%d random playouts, %d moves: %.1f ns per move (generate, apply and undo)%n", nPlayouts, nMoves, nsPerMove);
+        return nsPerMove;
+    }
+
+    /**
+     * plays 'nPlayouts' random playouts from the position of 'simulator' and undoes them, returns the number of moves
+     */
+    private static long playouts(PylosGameSimulator simulator, int[] moves, Random random, int nPlayouts) {
+        long nMoves = 0;
+        for (int p = 0; p < nPlayouts; p++) {
+            int length = 0;
+            while (length < MAX_PLAYOUT_LENGTH && simulator.getState() != PylosGameState.COMPLETED
+                    && simulator.getState() != PylosGameState.DRAW) {
+                int n = simulator.generateMoves(moves);
+                if (n == 0) break;
+                simulator.apply(moves[random.nextInt(n)]);
+                length++;
+            }
+            nMoves += length;
+            for (; length > 0; length--) {
+                simulator.undo();
+            }
+        }
+        return nMoves;
+    }
+}
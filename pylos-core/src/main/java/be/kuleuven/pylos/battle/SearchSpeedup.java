@@ -0,0 +1,172 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+import be.kuleuven.pylos.player.PylosPlayerType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Measures how much faster a parallel player searches with more threads: every position of a few games played by a
+ * reference player is searched by the player with 1, 2, .. 'maxThreads' threads, each time with a fresh game (so an
+ * empty transposition table). The speedup of n threads is the total search time with 1 thread divided by the total
+ * search time with n threads.
+ */
+public class SearchSpeedup {
+
+    public static double[] measure(PylosPlayerType reference, int nGames, IntFunction<PylosPlayer> player, int maxThreads) {
+        return measure(reference, nGames, player, maxThreads, true);
+    }
+
+    public static double[] measure(PylosPlayerType reference, int nGames, IntFunction<PylosPlayer> player, int maxThreads, boolean print) {
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < nGames; i++) {
+            PylosPlayer light = new RecordingPlayer(reference.create(), positions);
+            PylosPlayer dark = new RecordingPlayer(reference.create(), positions);
+            new PylosGame(new PylosBoard(), light, dark, new Random(i)).play();
+        }
+        if (print) System.out.println("Measuring search speedup on " + positions.size() + " positions of " + nGames + " games of " + reference);
+
+        double[] speedup = new double[maxThreads];
+        long singleThreadTime = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            PylosPlayer searcher = player.apply(threads);
+            PylosPlayer other = player.apply(1);
+            long time = 0;
+            for (Position position : positions) {
+                PylosBoard board = PylosBoard.fromSnapshot(position.snapshot);
+                searcher.init(position.color, other, PylosPlayerObserver.NONE, new Random(0));
+                PylosGameIF game = new SearchOnlyGame(position.state);
+
+                long start = System.nanoTime();
+                switch (position.state) {
+                    case MOVE:
+                        searcher.doMove(game, board);
+                        break;
+                    case REMOVE_FIRST:
+                        searcher.doRemove(game, board);
+                        break;
+                    default:
+                        searcher.doRemoveOrPass(game, board);
+                        break;
+                }
+                time += System.nanoTime() - start;
+            }
+            if (threads == 1) singleThreadTime = time;
+            speedup[threads - 1] = (double) singleThreadTime / time;
+            if (print) System.out.printf("%3d threads: %8.1f ms  speedup %.2f%n", threads, time / 1e6, speedup[threads - 1]);
+        }
+        return speedup;
+    }
+
+    private static class Position {
+        private final PylosBoardSnapshot snapshot;
+        private final PylosGameState state;
+        private final PylosPlayerColor color;
+
+        private Position(PylosBoardSnapshot snapshot, PylosGameState state, PylosPlayerColor color) {
+            this.snapshot = snapshot;
+            this.state = state;
+            this.color = color;
+        }
+    }
+
+    /**
+     * plays the moves of 'player' and keeps every position it had to play in
+     */
+    private static class RecordingPlayer extends PylosPlayer {
+        private final PylosPlayer player;
+        private final List<Position> positions;
+
+        private RecordingPlayer(PylosPlayer player, List<Position> positions) {
+            this.player = player;
+            this.positions = positions;
+        }
+
+        @Override
+        public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
+            super.init(playerColor, other, observer, random);
+            player.init(playerColor, other, observer, random);
+        }
+
+        @Override
+        public void doMove(PylosGameIF game, PylosBoard board) {
+            positions.add(new Position(board.snapshot(), game.getState(), PLAYER_COLOR));
+            player.doMove(game, board);
+        }
+
+        @Override
+        public void doRemove(PylosGameIF game, PylosBoard board) {
+            positions.add(new Position(board.snapshot(), game.getState(), PLAYER_COLOR));
+            player.doRemove(game, board);
+        }
+
+        @Override
+        public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
+            positions.add(new Position(board.snapshot(), game.getState(), PLAYER_COLOR));
+            player.doRemoveOrPass(game, board);
+        }
+    }
+
+    /**
+     * a game in which the player only searches: the move it chooses is not played
+     */
+    private static class SearchOnlyGame implements PylosGameIF {
+        private final PylosGameState state;
+
+        private SearchOnlyGame(PylosGameState state) {
+            this.state = state;
+        }
+
+        @Override
+        public PylosGameState getState() {
+            return state;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+
+        @Override
+        public PylosPlayer getWinner() {
+            return null;
+        }
+
+        @Override
+        public int getReserveSizeOfWinner() {
+            return -1;
+        }
+
+        @Override
+        public void moveSphere(PylosSphere pylosSphere, PylosLocation toLocation) {
+        }
+
+        @Override
+        public void removeSphere(PylosSphere pylosSphere) {
+        }
+
+        @Override
+        public void pass() {
+        }
+
+        @Override
+        public boolean moveSphereIsDraw(PylosSphere pylosSphere, PylosLocation toLocation) {
+            return false;
+        }
+
+        @Override
+        public boolean removeSphereIsDraw(PylosSphere pylosSphere) {
+            return false;
+        }
+
+        @Override
+        public boolean passIsDraw() {
+            return false;
+        }
+    }
+}
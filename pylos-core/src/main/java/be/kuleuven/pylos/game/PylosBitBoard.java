@@ -0,0 +1,637 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * Primitive counterpart of {@link PylosBoard} for the standard 4 layer pyramid.
+ * <p>
+ * The position is kept as two 30 bit masks (one bit per location, indexed by {@link PylosLocation#ID}) and two
+ * reserve counters. All game rules are answered with precomputed masks, so searching on a bit board never touches
+ * a PylosLocation, PylosSphere or PylosSquare.
+ * <p>
+ * Only PylosTablebaseGenerator searches on a bit board. PylosGameSimulator (and so every player searching with it,
+ * e.g. MiniMax, PVS, YBWC and MCTS) still plays on a PylosBoard: its add, move and remove keep the locations, squares
+ * and spheres up to date, only its rule queries (move generation, usable and removable locations, squares) use the
+ * mask helpers of this class.
+ * <p>
+ * Colors are passed as ints: 0 for light, 1 for dark (the ordinal of {@link PylosPlayerColor}).
+ */
+public class PylosBitBoard {
+
+    public static final int SIZE = 4;
+    public static final int LOCATIONS = 30;
+    public static final int SQUARES = 14;
+    public static final int SPHERES_PER_PLAYER = LOCATIONS / 2;
+
+    public static final int LIGHT = 0;
+    public static final int DARK = 1;
+
+    public static final long ALL_LOCATIONS = (1L << LOCATIONS) - 1;
+
+    private static final PylosTopology TOPOLOGY = PylosTopology.get(SIZE);
+
+    /* topology, indexed by location id */
+    static final int[] X = TOPOLOGY.x;
+    static final int[] Y = TOPOLOGY.y;
+    static final int[] Z = TOPOLOGY.z;
+    static final long[] BELOW = new long[LOCATIONS];         // the (up to) 4 locations supporting a location
+    static final long[] ABOVE = new long[LOCATIONS];         // the (up to) 4 locations resting on a location
+    static final int[] SQUARES_OF = new int[LOCATIONS];      // bit s is set if the location is part of square s
+
+    /* topology, indexed by square id (same order as PylosBoard.getAllSquares()) */
+    static final long[] SQUARE = new long[SQUARES];
+    static final int[] SQUARE_TOP = TOPOLOGY.squareTop;
+
+    /* topology, indexed by z */
+    static final long[] LAYER = new long[SIZE];
+    static final long[] HIGHER = new long[SIZE];             // all locations on a level above z
+
+    /* indexed by location id: the locations a sphere can be moved up to, on a higher level and not resting on it */
+    static final long[] UP = new long[LOCATIONS];
+
+    /* the origins of the squares: their (x, y) location, the other 3 are (x, y + 1) at id + 1, (x + 1, y) at id + n
+     * and (x + 1, y + 1) at id + n + 1 on a layer of n by n locations */
+    static final long[] ORIGINS = new long[SIZE - 1];        // indexed by z
+    static final long ALL_ORIGINS;
+
+    /* indexed by row of squares (a layer of n by n locations has n - 1 rows of n - 1 squares): the origins of the row
+     * and the shift from their location ids to their square ids */
+    private static final long[] SQUARE_ROW;
+    private static final int[] SQUARE_ROW_SHIFT;
+
+    static {
+        for (int i = 0; i < LOCATIONS; i++) {
+            LAYER[Z[i]] |= 1L << i;
+            for (int below : TOPOLOGY.below[i]) BELOW[i] |= 1L << below;
+            for (int above : TOPOLOGY.above[i]) ABOVE[i] |= 1L << above;
+            for (int square : TOPOLOGY.squaresOf[i]) SQUARES_OF[i] |= 1 << square;
+        }
+        for (int z = SIZE - 2; z >= 0; z--) {
+            HIGHER[z] = HIGHER[z + 1] | LAYER[z + 1];
+        }
+        for (int i = 0; i < LOCATIONS; i++) {
+            UP[i] = HIGHER[Z[i]] & ~ABOVE[i];
+        }
+        for (int s = 0; s < SQUARES; s++) {
+            for (int location : TOPOLOGY.squareLocations[s]) SQUARE[s] |= 1L << location;
+        }
+
+        int rows = 0;
+        for (int z = 0; z < SIZE - 1; z++) {
+            rows += SIZE - z - 1;
+        }
+        SQUARE_ROW = new long[rows];
+        SQUARE_ROW_SHIFT = new int[rows];
+        long allOrigins = 0;
+        int r = 0;
+        for (int z = 0; z < SIZE - 1; z++) {
+            int squaresPerRow = SIZE - z - 1;
+            for (int x = 0; x < squaresPerRow; x++, r++) {
+                int origin = getLocationId(x, 0, z);
+                /* the squares are numbered like the locations on top of them, from the first location of level 1 */
+                int square = getLocationId(x, 0, z + 1) - SIZE * SIZE;
+                assert SQUARE[square] == (1L << origin | 1L << (origin + 1) | BELOW[getLocationId(x, 0, z + 1)]);
+                SQUARE_ROW[r] = ((1L << squaresPerRow) - 1) << origin;
+                SQUARE_ROW_SHIFT[r] = origin - square;
+                ORIGINS[z] |= SQUARE_ROW[r];
+            }
+            allOrigins |= ORIGINS[z];
+        }
+        ALL_ORIGINS = allOrigins;
+    }
+
+    private long occupied;
+    private long dark;
+    private int reservesLight;
+    private int reservesDark;
+    private long hash;
+
+    public PylosBitBoard() {
+        reservesLight = SPHERES_PER_PLAYER;
+        reservesDark = SPHERES_PER_PLAYER;
+    }
+
+    public PylosBitBoard(PylosBoard board) {
+        load(board);
+    }
+
+    /* conversion ------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the id of the location on level z (0=bottom), position x y
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static int getLocationId(int x, int y, int z) {
+        return TOPOLOGY.getLocationId(x, y, z);
+    }
+
+    /**
+     * returns a mask with a bit set for every location resting on 'location' (the locations it supports)
+     *
+     * @param location
+     * @return
+     */
+    public static long getSupports(int location) {
+        return ABOVE[location];
+    }
+
+    /**
+     * returns a mask with a bit set for every location 'location' rests on (0 on the bottom level)
+     *
+     * @param location
+     * @return
+     */
+    public static long getSupportedBy(int location) {
+        return BELOW[location];
+    }
+
+    /**
+     * copies the position of 'board' into this bit board
+     *
+     * @param board
+     */
+    public void load(PylosBoard board) {
+        assert board.SIZE == SIZE : "Only the standard board can be loaded";
+        load(board.toLong(), board.getReservesSize(PylosPlayerColor.LIGHT), board.getReservesSize(PylosPlayerColor.DARK));
+        assert hash == board.getHash() : "Loaded position differs from the board";
+    }
+
+    /**
+     * copies the position of 'snapshot' into this bit board
+     *
+     * @param snapshot
+     */
+    public void load(PylosBoardSnapshot snapshot) {
+        if (snapshot.SIZE != SIZE) {
+            throw new IllegalArgumentException("Only snapshots of the standard board can be loaded");
+        }
+        load(snapshot.toLong(), snapshot.getReservesSize(LIGHT), snapshot.getReservesSize(DARK));
+        assert hash == snapshot.HASH : "Loaded position differs from the snapshot";
+    }
+
+    /**
+     * sets the position with the spheres 'light' and 'dark' (masks by PylosLocation.ID) and the given reserves,
+     * the caller makes sure every sphere is supported and the reserves match the spheres on the board
+     *
+     * @param light
+     * @param dark
+     * @param reservesLight
+     * @param reservesDark
+     */
+    public void load(long light, long dark, int reservesLight, int reservesDark) {
+        assert (light & dark) == 0 && ((light | dark) & ~ALL_LOCATIONS) == 0 : "Not a position";
+        occupied = 0;
+        this.dark = 0;
+        hash = 0;
+        for (long m = light; m != 0; m &= m - 1) {
+            put(LIGHT, Long.numberOfTrailingZeros(m));
+        }
+        for (long m = dark; m != 0; m &= m - 1) {
+            put(DARK, Long.numberOfTrailingZeros(m));
+        }
+        this.reservesLight = reservesLight;
+        this.reservesDark = reservesDark;
+    }
+
+    /**
+     * returns a new bit board with the position of 'snapshot'
+     *
+     * @param snapshot
+     * @return
+     */
+    public static PylosBitBoard fromSnapshot(PylosBoardSnapshot snapshot) {
+        PylosBitBoard bitBoard = new PylosBitBoard();
+        bitBoard.load(snapshot);
+        return bitBoard;
+    }
+
+    /**
+     * returns a new bit board with the same position as this bit board
+     *
+     * @return
+     */
+    public PylosBitBoard copy() {
+        PylosBitBoard copy = new PylosBitBoard();
+        copy.occupied = occupied;
+        copy.dark = dark;
+        copy.reservesLight = reservesLight;
+        copy.reservesDark = reservesDark;
+        copy.hash = hash;
+        return copy;
+    }
+
+    /**
+     * returns the same long representation as PylosBoard.toLong() for this position
+     *
+     * @return
+     */
+    public long toLong() {
+        long state = 0;
+        for (long m = occupied; m != 0; m &= m - 1) {
+            int i = Long.numberOfTrailingZeros(m);
+            state |= 1L << (i * 2 + (int) ((dark >>> i) & 1));
+        }
+        return state;
+    }
+
+    /* queries ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the Zobrist hash of the spheres on this board, equal to PylosBoard.getHash() for the same position
+     *
+     * @return
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * returns a mask with a bit set for every used location
+     *
+     * @return
+     */
+    public long getOccupied() {
+        return occupied;
+    }
+
+    /**
+     * returns a mask with a bit set for every location holding a sphere of 'color'
+     *
+     * @param color
+     * @return
+     */
+    public long getSpheres(int color) {
+        return color == DARK ? dark : occupied & ~dark;
+    }
+
+    public int getReservesSize(int color) {
+        return color == DARK ? reservesDark : reservesLight;
+    }
+
+    public int getReservesSize(PylosPlayerColor color) {
+        return getReservesSize(color.ordinal());
+    }
+
+    public int getNumberOfSpheresOnBoard() {
+        return Long.bitCount(occupied);
+    }
+
+    /**
+     * returns the color of the sphere at 'location', or -1 if the location is not used
+     *
+     * @param location
+     * @return
+     */
+    public int getColor(int location) {
+        if ((occupied & 1L << location) == 0) return -1;
+        return (int) ((dark >>> location) & 1);
+    }
+
+    public boolean isUsed(int location) {
+        return (occupied & 1L << location) != 0;
+    }
+
+    public boolean isUsable(int location) {
+        return (occupied & 1L << location) == 0 && (occupied & BELOW[location]) == BELOW[location];
+    }
+
+    public boolean hasAbove(int location) {
+        return (occupied & ABOVE[location]) != 0;
+    }
+
+    /**
+     * returns a mask with a bit set for every empty location of which all supporting locations are used
+     *
+     * @return
+     */
+    public long getUsable() {
+        return usable(occupied);
+    }
+
+    /**
+     * returns a mask with a bit set for every sphere of 'color' on the board without spheres above,
+     * these are the spheres that can be removed
+     *
+     * @param color
+     * @return
+     */
+    public long getRemovable(int color) {
+        return free(getSpheres(color), occupied);
+    }
+
+    /**
+     * returns true if the sphere at 'from' can be moved to 'to': the sphere has nothing above, 'to' is usable,
+     * on a higher level and not resting on 'from'
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean canMove(int from, int to) {
+        return (occupied & ABOVE[from]) == 0
+                && (UP[from] & 1L << to) != 0
+                && isUsable(to);
+    }
+
+    /**
+     * returns a mask with a bit set for every location the sphere at 'from' can be moved to,
+     * 0 if 'from' is not used or has spheres above
+     *
+     * @param from
+     * @return
+     */
+    public long getMoveTargets(int from) {
+        if ((occupied & 1L << from) == 0 || (occupied & ABOVE[from]) != 0) return 0;
+        return targets(from, usable(occupied));
+    }
+
+    /**
+     * sets targets[from] to the mask of locations the sphere of 'color' at 'from' can be moved to and returns a mask
+     * of the locations 'from' with at least one target, together all legal move-up moves of 'color'
+     * ('targets' should hold LOCATIONS entries, entries of other locations are not touched)
+     *
+     * @param color
+     * @param targets
+     * @return
+     */
+    public long getMoveTargets(int color, long[] targets) {
+        return moveTargets(getSpheres(color), occupied, targets);
+    }
+
+    /**
+     * returns true if the square 'location' is part of is fully filled with spheres of 'color'
+     *
+     * @param location
+     * @param color
+     * @return
+     */
+    public boolean isSquare(int location, int color) {
+        return inSquare(location, getSpheres(color));
+    }
+
+    /**
+     * returns a mask with bit s set for every square s (see PylosBoard.getAllSquares()) filled with spheres of 'color'
+     *
+     * @param color
+     * @return
+     */
+    public int getFullSquares(int color) {
+        return fullSquares(getSpheres(color));
+    }
+
+    /**
+     * returns a mask with bit s set for every square s holding 3 spheres of 'color' and an empty location
+     *
+     * @param color
+     * @return
+     */
+    public int getSquareThreats(int color) {
+        return squareThreats(getSpheres(color), occupied);
+    }
+
+    /**
+     * returns a mask with bit s set for every square s holding 3 spheres of 'color' and 1 of the other color
+     *
+     * @param color
+     * @return
+     */
+    public int getBlockedSquares(int color) {
+        return blockedSquares(getSpheres(color), occupied);
+    }
+
+    /* make ------------------------------------------------------------------------------------------------------- */
+
+    /**
+     * puts a reserve sphere of 'color' at 'to', returns true if this completed a square of 'color'
+     *
+     * @param color
+     * @param to
+     * @return
+     */
+    public boolean add(int color, int to) {
+        assert isUsable(to) : "Location " + to + " is not usable";
+        assert getReservesSize(color) > 0 : "No reserves left for color " + color;
+        put(color, to);
+        if (color == DARK) reservesDark--;
+        else reservesLight--;
+        return isSquare(to, color);
+    }
+
+    /**
+     * moves the sphere at 'from' to the higher location 'to', returns true if this completed a square
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean move(int from, int to) {
+        assert isUsed(from) : "Location " + from + " is not used";
+        assert canMove(from, to) : "Can't move from " + from + " to " + to;
+        int color = (int) ((dark >>> from) & 1);
+        clear(from);
+        put(color, to);
+        return isSquare(to, color);
+    }
+
+    /**
+     * takes the sphere at 'from' back to the reserves of its owner
+     *
+     * @param from
+     */
+    public void remove(int from) {
+        assert isUsed(from) : "Location " + from + " is not used";
+        assert !hasAbove(from) : "Location " + from + " has other spheres above";
+        if ((dark & 1L << from) != 0) reservesDark++;
+        else reservesLight++;
+        clear(from);
+    }
+
+    /* unmake ----------------------------------------------------------------------------------------------------- */
+
+    public void undoAdd(int to) {
+        remove(to);
+    }
+
+    public void undoMove(int from, int to) {
+        assert isUsed(to) && !isUsed(from) : "Can't undo the move from " + from + " to " + to;
+        int color = (int) ((dark >>> to) & 1);
+        clear(to);
+        put(color, from);
+    }
+
+    public void undoRemove(int color, int from) {
+        add(color, from);
+    }
+
+    /* mask helpers, shared with PylosBoard ----------------------------------------------------------------------- */
+
+    /**
+     * returns the usable locations given the used locations: the empty locations on level 0 and on top of a full
+     * square, location id SIZE * SIZE + square id
+     */
+    static long usable(long occupied) {
+        return (LAYER[0] | (long) fullSquares(occupied) << (SIZE * SIZE)) & ~occupied;
+    }
+
+    /**
+     * returns the locations in 'spheres' without any used location above: not a corner of a square of which the
+     * location on top is used
+     */
+    static long free(long spheres, long occupied) {
+        long origins = fromSquares(occupied >>> (SIZE * SIZE));
+        long covered = origins | (origins << 1) | previousRow(origins) | previousRow(origins << 1);
+        return spheres & ~covered;
+    }
+
+    /**
+     * returns true if 'location' is part of a square completely filled with 'spheres'
+     */
+    static boolean inSquare(int location, long spheres) {
+        for (int m = SQUARES_OF[location]; m != 0; m &= m - 1) {
+            long square = SQUARE[Integer.numberOfTrailingZeros(m)];
+            if ((spheres & square) == square) return true;
+        }
+        return false;
+    }
+
+    /**
+     * returns the squares filled with 'spheres'
+     */
+    static int fullSquares(long spheres) {
+        return toSquares(fullOrigins(spheres));
+    }
+
+    /**
+     * returns the squares holding 3 of 'spheres' and an empty location
+     */
+    static int squareThreats(long spheres, long occupied) {
+        return toSquares(threeOrigins(spheres) & ~fullOrigins(occupied));
+    }
+
+    /**
+     * returns the squares holding 3 of 'spheres' and another sphere
+     */
+    static int blockedSquares(long spheres, long occupied) {
+        return toSquares(threeOrigins(spheres) & fullOrigins(occupied));
+    }
+
+    /**
+     * returns the origins of the squares of which all 4 locations are in 'mask'
+     */
+    static long fullOrigins(long mask) {
+        return mask & (mask >>> 1) & nextRow(mask) & nextRow(mask >>> 1);
+    }
+
+    /**
+     * returns the origins of the squares of which exactly 3 locations are in 'mask'
+     */
+    static long threeOrigins(long mask) {
+        long c00 = mask & ALL_ORIGINS;
+        long c01 = (mask >>> 1) & ALL_ORIGINS;
+        long c10 = nextRow(mask);
+        long c11 = nextRow(mask >>> 1);
+        long atLeast3 = (c00 & c01 & (c10 | c11)) | (c10 & c11 & (c00 | c01));
+        return atLeast3 & ~(c00 & c01 & c10 & c11);
+    }
+
+    /**
+     * returns 'mask' shifted from the (x + 1, y) location of every square to its origin, on every level by the length
+     * of its rows
+     */
+    private static long nextRow(long mask) {
+        long next = 0;
+        for (int z = 0; z < SIZE - 1; z++) {
+            next |= (mask >>> (SIZE - z)) & ORIGINS[z];
+        }
+        return next;
+    }
+
+    /**
+     * returns 'mask', locations of the squares other than their (x + 1, y) ones, shifted one row further on every
+     * level, the inverse of nextRow(..)
+     */
+    private static long previousRow(long mask) {
+        long previous = 0;
+        for (int z = 0; z < SIZE - 1; z++) {
+            previous |= (mask & LAYER[z]) << (SIZE - z);
+        }
+        return previous;
+    }
+
+    /**
+     * returns the mask of square ids of the square origins 'origins', one shift per row of squares
+     */
+    static int toSquares(long origins) {
+        long squares = 0;
+        for (int r = 0; r < SQUARE_ROW.length; r++) {
+            squares |= (origins & SQUARE_ROW[r]) >>> SQUARE_ROW_SHIFT[r];
+        }
+        return (int) squares;
+    }
+
+    /**
+     * returns the origins of the square ids in 'squares', the inverse of toSquares(..)
+     */
+    static long fromSquares(long squares) {
+        long origins = 0;
+        for (int r = 0; r < SQUARE_ROW.length; r++) {
+            origins |= (squares << SQUARE_ROW_SHIFT[r]) & SQUARE_ROW[r];
+        }
+        return origins;
+    }
+
+    /**
+     * returns the usable locations 'from' can be moved to: higher and not resting on 'from'
+     */
+    static long targets(int from, long usable) {
+        return usable & UP[from];
+    }
+
+    /**
+     * fills 'targets' for every sphere in 'spheres' that can move up, returns the spheres that can
+     */
+    static long moveTargets(long spheres, long occupied, long[] targets) {
+        long usable = usable(occupied);
+        long movable = 0;
+        for (long m = free(spheres, occupied); m != 0; m &= m - 1) {
+            int from = Long.numberOfTrailingZeros(m);
+            long t = usable & UP[from];
+            targets[from] = t;
+            if (t != 0) movable |= 1L << from;
+        }
+        return movable;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private void load(long state, int reservesLight, int reservesDark) {
+        occupied = 0;
+        dark = 0;
+        hash = 0;
+        for (int i = 0; i < LOCATIONS; i++) {
+            int color = (int) (state >>> (i * 2)) & 3;
+            if (color != 0) put(color - 1, i);
+        }
+        this.reservesLight = reservesLight;
+        this.reservesDark = reservesDark;
+    }
+
+    private void put(int color, int location) {
+        occupied |= 1L << location;
+        if (color == DARK) dark |= 1L << location;
+        hash ^= PylosZobrist.LOCATION[location][color];
+    }
+
+    private void clear(int location) {
+        hash ^= PylosZobrist.LOCATION[location][(int) ((dark >>> location) & 1)];
+        occupied &= ~(1L << location);
+        dark &= ~(1L << location);
+    }
+
+    @Override
+    public String toString() {
+        return "PylosBitBoard[state=" + Long.toBinaryString(toLong()) + ", reservesLight=" + reservesLight + ", reservesDark=" + reservesDark + "]";
+    }
+}
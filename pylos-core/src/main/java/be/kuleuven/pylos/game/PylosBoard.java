@@ -2,7 +2,6 @@ package be.kuleuven.pylos.game;
 
 import be.kuleuven.pylos.player.PylosPlayer;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
@@ -10,19 +9,16 @@ import java.util.Arrays;
  */
 public class PylosBoard {
 
-    static final long MASK_z0x0 = 0b00000000_00000000_00000000_00000000_00000000_00000000_00000000_11111111L;
-    static final long MASK_z0x1 = 0b00000000_00000000_00000000_00000000_00000000_00000000_11111111_00000000L;
-    static final long MASK_z0x2 = 0b00000000_00000000_00000000_00000000_00000000_11111111_00000000_00000000L;
-    static final long MASK_z0x3 = 0b00000000_00000000_00000000_00000000_11111111_00000000_00000000_00000000L;
-    static final long MASK_z1x0 = 0b00000000_00000000_00000000_00111111_00000000_00000000_00000000_00000000L;
-    static final long MASK_z1x1 = 0b00000000_00000000_00001111_11000000_00000000_00000000_00000000_00000000L;
-    static final long MASK_z1x2 = 0b00000000_00000011_11110000_00000000_00000000_00000000_00000000_00000000L;
-    static final long MASK_z2x0 = 0b00000000_00111100_00000000_00000000_00000000_00000000_00000000_00000000L;
-    static final long MASK_z2x1 = 0b00000011_11000000_00000000_00000000_00000000_00000000_00000000_00000000L;
-    static final long MASK_z3x0 = 0b00001100_00000000_00000000_00000000_00000000_00000000_00000000_00000000L;
-    private final static long[][][][] BIT_MASK_FOR_OR;    // [z][x][y][0/1 color]
+    public static final int STANDARD_SIZE = 4;
+    public static final int MAX_SIZE = 7;
 
-    /* state of the board:
+    /* upper bound of the number of moves generateMoves(..) can return on the standard board, see getMaxMoves() */
+    public static final int MAX_MOVES = 256;
+
+    /* one reusable board per thread, see getThreadBoard() */
+    private static final ThreadLocal<PylosBoard> THREAD_BOARD = ThreadLocal.withInitial(PylosBoard::new);
+
+    /* state of the board, 2 bits per location (by PylosLocation.ID), 32 locations per word of 'state':
      *
      * bit=0: light, bit=1: dark
      *
@@ -39,254 +35,197 @@ public class PylosBoard {
      * ........ ........ ........ ........ ........ ........ ........ ......10	layer z=0, x=0, y=0, dark
      * ........ ........ ........ ........ ........ ........ ........ ......11	layer z=0, x=0, y=0, error
      *
+     * (the layout of the standard board, which fits in a single word)
      * */
-    private final static long[][][][] BIT_MASK_FOR_AND;
-
-    static {
-        int index = 0;
-        BIT_MASK_FOR_OR = new long[4][][][];
-        BIT_MASK_FOR_AND = new long[4][][][];
-        for (int z = 0; z < 4; z++) {
-            BIT_MASK_FOR_OR[z] = new long[4 - z][][];
-            BIT_MASK_FOR_AND[z] = new long[4 - z][][];
-            for (int x = 0; x < BIT_MASK_FOR_OR[z].length; x++) {
-                BIT_MASK_FOR_OR[z][x] = new long[4 - z][];
-                BIT_MASK_FOR_AND[z][x] = new long[4 - z][];
-                for (int y = 0; y < BIT_MASK_FOR_OR[z].length; y++) {
-                    BIT_MASK_FOR_OR[z][x][y] = new long[2];
-                    BIT_MASK_FOR_OR[z][x][y][0] = 1L << index;
-                    BIT_MASK_FOR_OR[z][x][y][1] = 1L << (index + 1);
-                    BIT_MASK_FOR_AND[z][x][y] = new long[2];
-                    BIT_MASK_FOR_AND[z][x][y][0] = ~BIT_MASK_FOR_OR[z][x][y][0];
-                    BIT_MASK_FOR_AND[z][x][y][1] = ~BIT_MASK_FOR_OR[z][x][y][1];
-                    index += 2;
-                }
-            }
-        }
-    }
+    private static final int LOCATIONS_PER_WORD = 32;
 
     public final int SIZE;
     public final int SPHERES_PER_PLAYER;
-    private final ArrayList<ArrayList<ArrayList<PylosLocation>>> locations; // z,x,y
+    private final boolean standard;
+    private final PylosTopology topology;
     private final PylosLocation[] allLocations;
-    private final PylosLocation[][] symmetrics;
     private final PylosSquare[] allSquares;
     private final PylosSphere[] spheresLight;
     private final PylosSphere[] spheresDark;
-
-    //	public long flip(long state) {
-//		// along x axis
-//		long z0x0 = state & MASK_z0x0;
-//		long z0x1 = state & MASK_z0x1;
-//		long z0x2 = state & MASK_z0x2;
-//		long z0x3 = state & MASK_z0x3;
-//		long z1x0 = state & MASK_z1x0;
-//		long z1x1 = state & MASK_z1x1;
-//		long z1x2 = state & MASK_z1x2;
-//		long z2x0 = state & MASK_z2x0;
-//		long z2x1 = state & MASK_z2x1;
-//		long z3x0 = state & MASK_z3x0;
-//
-//		// flip around x axis
-//
-//		z0x0 <<= 24;
-//		z0x1 <<= 8;
-//		z0x2 >>= 8;
-//		z0x3 >>= 24;
-//
-//		z1x0 <<= 12;
-//		z1x2 >>= 12;
-//
-//		z2x0 <<= 4;
-//		z2x1 >>= 4;
-//
-//		return z0x0 | z0x1 | z0x2 | z0x3 | z1x0 | z1x1 | z1x2 | z2x0 | z2x1 | z3x0;
-//	}
     private final PylosSphere[] allSpheres;
-    private final ArrayList<PylosSphere> reservesLight;
-    private final ArrayList<PylosSphere> reservesDark;
-    private long state = 0;
+    /* reserve spheres as a stack of sphere ids per color, the top (getReserve(..)) is at reservesSize - 1, see popReserve(..) */
+    private final int[][] reserves;          // [color][index] = sphere id
+    private final int[][] reserveIndex;      // [color][sphere id] = index in reserves, -1 if the sphere is on the board
+    private final int[] reservesSize = new int[2];
+    private final int[] squareCounts = new int[PylosSquare.COUNTS];    // see PylosSquare, kept up to date by the squares
+    private final long[] state;
+    private long hash = 0;
+    private long usedMask = 0;      // standard board only: bit PylosLocation.ID set for every used location
+    private long darkMask = 0;      // standard board only: bit PylosLocation.ID set for every location used by a dark sphere
 
     public PylosBoard() {
-        this(4);
-
-//		set(0, 0, 3, PylosPlayerColor.LIGHT);
-//
-//		for(int z=0; z<4; z++){
-//			for(int x=0; x<BIT_MASK_FOR_OR[z].length; x++){
-//				for(int y=0; y<BIT_MASK_FOR_OR[z].length; y++){
-//					set(x, y, z, PylosPlayerColor.DARK);
-//				}
-//			}
-//		}
-//
-//		System.exit(0);
-
+        this(STANDARD_SIZE);
     }
 
-    private PylosBoard(int size) {
+    /**
+     * creates an empty pyramid of 'size' layers, the standard board has 4 layers.
+     * Every player gets half of the spheres (rounded up), so the winner can always fill the remaining locations.
+     * The methods working with masks (getUsedLocations(), generateMoves(..) uses them internally) and the long
+     * representation are only supported on the standard board.
+     *
+     * @param size
+     */
+    public PylosBoard(int size) {
+        if (size < 2 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("The size of a board should be between 2 and " + MAX_SIZE + ", not " + size);
+        }
         SIZE = size;
+        standard = size == STANDARD_SIZE;
         int totalSpheres = 0;
         for (int i = 1; i <= SIZE; i++) {
             totalSpheres += i * i;
         }
-        SPHERES_PER_PLAYER = totalSpheres / 2;
+        SPHERES_PER_PLAYER = (totalSpheres + 1) / 2;
+        state = new long[(totalSpheres + LOCATIONS_PER_WORD - 1) / LOCATIONS_PER_WORD];
 
         /* create PylosSpheres */
         spheresLight = new PylosSphere[SPHERES_PER_PLAYER];
         spheresDark = new PylosSphere[SPHERES_PER_PLAYER];
         allSpheres = new PylosSphere[SPHERES_PER_PLAYER * 2];
-        reservesLight = new ArrayList<>();
-        reservesDark = new ArrayList<>();
+        reserves = new int[2][SPHERES_PER_PLAYER];
+        reserveIndex = new int[2][SPHERES_PER_PLAYER];
         for (int i = 0; i < SPHERES_PER_PLAYER; i++) {
-            spheresLight[i] = new PylosSphere(PylosPlayerColor.LIGHT, i);
-            spheresDark[i] = new PylosSphere(PylosPlayerColor.DARK, i);
-            reservesLight.add(0, spheresLight[i]);
-            reservesDark.add(0, spheresDark[i]);
+            spheresLight[i] = new PylosSphere(this, PylosPlayerColor.LIGHT, i);
+            spheresDark[i] = new PylosSphere(this, PylosPlayerColor.DARK, i);
             allSpheres[i] = spheresLight[i];
             allSpheres[SPHERES_PER_PLAYER + i] = spheresDark[i];
         }
+        resetReserves();
 
         /* create locations */
-        locations = new ArrayList<>();
-        allLocations = new PylosLocation[SPHERES_PER_PLAYER * 2];
-        int allLocId = 0;
-        for (int z = 0; z < size; z++) {
-            ArrayList<ArrayList<PylosLocation>> xList = new ArrayList<>();
-            locations.add(xList);
-            for (int x = 0; x < size - z; x++) {
-                ArrayList<PylosLocation> yList = new ArrayList<>();
-                xList.add(yList);
-                for (int y = 0; y < size - z; y++) {
-                    PylosLocation pylosLocation = new PylosLocation(x, y, z);
-                    yList.add(pylosLocation);
-                    allLocations[allLocId++] = pylosLocation;
-                }
-            }
+        topology = PylosTopology.get(size);
+        allLocations = new PylosLocation[topology.LOCATIONS];
+        for (int id = 0; id < allLocations.length; id++) {
+            allLocations[id] = new PylosLocation(id, topology.x[id], topology.y[id], topology.z[id]);
         }
 
-        /* order locations for 8 symmetric */
-        symmetrics = new PylosLocation[8][30];
-        // xy(0,0) >
-        int index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int x = 0; x < 4 - z; x++)
-                for (int y = 0; y < 4 - z; y++) symmetrics[0][index++] = getBoardLocation(x, y, z);
-        // xy(0,0) v
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int y = 0; y < 4 - z; y++)
-                for (int x = 0; x < 4 - z; x++) symmetrics[1][index++] = getBoardLocation(x, y, z);
-        // xy(0,3) <
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int x = 3 - z; x >= 0; x--)
-                for (int y = 0; y < 4 - z; y++) symmetrics[2][index++] = getBoardLocation(x, y, z);
-        // xy(0,3) v
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int y = 0; y < 4 - z; y++)
-                for (int x = 3 - z; x >= 0; x--) symmetrics[3][index++] = getBoardLocation(x, y, z);
-        // xy(3,3) <
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int x = 3 - z; x >= 0; x--)
-                for (int y = 3 - z; y >= 0; y--) symmetrics[4][index++] = getBoardLocation(x, y, z);
-        // xy(3,3) ^
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int y = 3 - z; y >= 0; y--)
-                for (int x = 3 - z; x >= 0; x--) symmetrics[5][index++] = getBoardLocation(x, y, z);
-        // xy(0,3) >
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int x = 0; x < 4 - z; x++)
-                for (int y = 3 - z; y >= 0; y--) symmetrics[6][index++] = getBoardLocation(x, y, z);
-        // xy(0,3) ^
-        index = 0;
-        for (int z = 0; z < 4; z++)
-            for (int y = 3 - z; y >= 0; y--)
-                for (int x = 0; x < 4 - z; x++) symmetrics[7][index++] = getBoardLocation(x, y, z);
-
         /* create squares */
-        ArrayList<PylosSquare> squares = new ArrayList<>();
-        for (int z = 0; z < size - 1; z++) {
-            for (int x = 0; x < size - z - 1; x++) {
-                for (int y = 0; y < size - z - 1; y++) {
-                    PylosSquare square = new PylosSquare(
-                            getBoardLocation(x, y, z),
-                            getBoardLocation(x + 1, y, z),
-                            getBoardLocation(x, y + 1, z),
-                            getBoardLocation(x + 1, y + 1, z),
-                            getBoardLocation(x, y, z + 1)
-                    );
-                    squares.add(square);
-                }
-            }
+        allSquares = new PylosSquare[topology.SQUARES];
+        for (int s = 0; s < allSquares.length; s++) {
+            int[] squareLocations = topology.squareLocations[s];
+            allSquares[s] = new PylosSquare(
+                    allLocations[squareLocations[0]],
+                    allLocations[squareLocations[1]],
+                    allLocations[squareLocations[2]],
+                    allLocations[squareLocations[3]],
+                    allLocations[topology.squareTop[s]],
+                    squareCounts
+            );
         }
-        allSquares = new PylosSquare[squares.size()];
-        for (int i = 0; i < squares.size(); i++) allSquares[i] = squares.get(i);
 
         /* link locations */
-        PylosLocation top = getBoardLocation(0, 0, SIZE - 1);
-        link(top);
+        for (PylosLocation location : allLocations) {
+            for (int below : topology.below[location.ID]) {
+                location.below.add(allLocations[below]);
+            }
+            for (int above : topology.above[location.ID]) {
+                location.above.add(allLocations[above]);
+            }
+        }
     }
 
-    /* public methods --------------------------------------------------------------------------------------------- */
+    /**
+     * returns the standard board owned by the calling thread, reset to the start position.
+     * Reusing it avoids building the locations, squares and spheres again for every game (e.g. in battles),
+     * but the board must no longer be used by a previous game of the same thread.
+     *
+     * @return
+     */
+    public static PylosBoard getThreadBoard() {
+        PylosBoard board = THREAD_BOARD.get();
+        board.reset();
+        return board;
+    }
 
-    private long toLowestLong() {
+    /**
+     * returns a new standard board with the position of the long representation 'state' (see toLong()),
+     * see load(long) for the sphere ids and reserves
+     *
+     * @param state
+     * @return
+     */
+    public static PylosBoard fromLong(long state) {
+        PylosBoard board = new PylosBoard();
+        board.load(state);
+        return board;
+    }
 
-        ArrayList<PylosLocation[]> symSeqs = new ArrayList<>();
-        symSeqs.addAll(Arrays.asList(symmetrics));
+    /**
+     * returns a new board with the position of 'snapshot'
+     *
+     * @param snapshot
+     * @return
+     */
+    public static PylosBoard fromSnapshot(PylosBoardSnapshot snapshot) {
+        PylosBoard board = new PylosBoard(snapshot.SIZE);
+        board.restore(snapshot);
+        return board;
+    }
 
-        for (int i = 0; i < 30; i++) {
-            int smallestOrdinal = Integer.MAX_VALUE;
-            for (int j = 0; j < symSeqs.size(); j++) {
-                PylosLocation pl = symSeqs.get(j)[i];
-                int ordinal;
-                if (!pl.isUsed()) ordinal = 0;
-                else if (pl.getSphere().PLAYER_COLOR == PylosPlayerColor.LIGHT) ordinal = 1;
-                else ordinal = 2;
-                smallestOrdinal = Math.min(smallestOrdinal, ordinal);
-            }
-            // remove larger ordinals
-            for (int j = 0; j < symSeqs.size(); ) {
-                PylosLocation pl = symSeqs.get(j)[i];
-                int ordinal;
-                if (!pl.isUsed()) ordinal = 0;
-                else if (pl.getSphere().PLAYER_COLOR == PylosPlayerColor.LIGHT) ordinal = 1;
-                else ordinal = 2;
-                if (ordinal > smallestOrdinal) {
-                    symSeqs.remove(j);
-                } else {
-                    j++;
-                }
-            }
-            if (symSeqs.size() == 1) break;
-        }
+    /* public methods --------------------------------------------------------------------------------------------- */
 
-        PylosLocation[] sequence = symSeqs.get(0);
+    /**
+     * returns true if this is the standard board of 4 layers
+     *
+     * @return
+     */
+    public boolean isStandard() {
+        return standard;
+    }
 
-        long state = 0;
-        for (int i = 0; i < sequence.length; i++) {
-            PylosLocation pl = sequence[i];
-            long ordinal;
-            if (!pl.isUsed()) ordinal = 0;
-            else if (pl.getSphere().PLAYER_COLOR == PylosPlayerColor.LIGHT) ordinal = 1;
-            else ordinal = 2;
-            state |= (ordinal << (i * 2));
-        }
+    /**
+     * returns a long representation of this board state (standard board only)
+     *
+     * @return
+     */
+    public long toLong() {
+        checkStandard();
+        return state[0];
+    }
 
-        return state;
+    /**
+     * returns a copy of the representation of this board state for every size,
+     * a single word equal to toLong() on the standard board
+     *
+     * @return
+     */
+    public long[] toLongArray() {
+        return state.clone();
     }
 
     /**
-     * returns a long representation of this board state
+     * returns an upper bound of the number of moves generateMoves(..) can return on this board
      *
      * @return
      */
-    public long toLong() {
-        return state;
+    public int getMaxMoves() {
+        return standard ? MAX_MOVES : (SPHERES_PER_PLAYER + 1) * allLocations.length + 1;
+    }
+
+    /**
+     * returns the smallest long representation of the 8 symmetric variants (rotations, reflections) of this board,
+     * use PylosSymmetry.canonicalize(toLong()) to also know which transform was applied
+     *
+     * @return
+     */
+    public long toCanonicalLong() {
+        return PylosSymmetry.getState(PylosSymmetry.canonicalize(toLong()));
+    }
+
+    /**
+     * returns a 64 bit Zobrist hash of the spheres on this board,
+     * updated incrementally on every add, move and remove
+     * (the reserve sizes follow from the spheres on the board, so they are covered as well)
+     *
+     * @return
+     */
+    public long getHash() {
+        return hash;
     }
 
     /**
@@ -295,7 +234,7 @@ public class PylosBoard {
      * @return
      */
     public int getNumberOfSpheresOnBoard() {
-        return allSpheres.length - reservesLight.size() - reservesDark.size();
+        return allSpheres.length - reservesSize[0] - reservesSize[1];
     }
 
     /**
@@ -310,11 +249,11 @@ public class PylosBoard {
         assert z >= 0 && z < SIZE : "z (=" + z + ") is out of bounds";
         assert x >= 0 && x < (SIZE - z) : "x (=" + x + ") is out of bounds";
         assert y >= 0 && y < (SIZE - z) : "y (=" + y + ") is out of bounds";
-        return locations.get(z).get(x).get(y);
+        return allLocations[topology.getLocationId(x, y, z)];
     }
 
     /**
-     * returns all 30 locations of the board
+     * returns all locations of the board (30 on the standard board)
      *
      * @return
      */
@@ -323,7 +262,7 @@ public class PylosBoard {
     }
 
     /**
-     * returns all 14 squares of the board
+     * returns all squares of the board (14 on the standard board)
      *
      * @return
      */
@@ -332,7 +271,7 @@ public class PylosBoard {
     }
 
     /**
-     * returns all 30 spheres
+     * returns all spheres (30 on the standard board)
      *
      * @return
      */
@@ -341,7 +280,7 @@ public class PylosBoard {
     }
 
     /**
-     * returns all 15 spheres of 'player'
+     * returns all SPHERES_PER_PLAYER spheres of 'player'
      *
      * @param player
      * @return
@@ -351,7 +290,7 @@ public class PylosBoard {
     }
 
     /**
-     * returns all 15 spheres of 'color'
+     * returns all SPHERES_PER_PLAYER spheres of 'color'
      *
      * @param color
      * @return
@@ -360,6 +299,17 @@ public class PylosBoard {
         return color == PylosPlayerColor.LIGHT ? spheresLight : spheresDark;
     }
 
+    /**
+     * returns the sphere of 'color' with PylosSphere.ID 'id'
+     *
+     * @param playerColor
+     * @param id
+     * @return
+     */
+    public PylosSphere getSphere(PylosPlayerColor playerColor, int id) {
+        return playerColor == PylosPlayerColor.LIGHT ? spheresLight[id] : spheresDark[id];
+    }
+
     /**
      * returns a reserve sphere of 'player'
      *
@@ -377,9 +327,9 @@ public class PylosBoard {
      * @return
      */
     public PylosSphere getReserve(PylosPlayerColor color) {
-        ArrayList<PylosSphere> reserves = color == PylosPlayerColor.LIGHT ? reservesLight : reservesDark;
-        assert !reserves.isEmpty() : "Player " + color + " has no reserve spheres, player " + color.other() + " has won the game";
-        return reserves.get(reserves.size() - 1);
+        int c = color.ordinal();
+        assert reservesSize[c] > 0 : "Player " + color + " has no reserve spheres, player " + color.other() + " has won the game";
+        return getSphere(color, reserves[c][reservesSize[c] - 1]);
     }
 
     /**
@@ -399,15 +349,296 @@ public class PylosBoard {
      * @return
      */
     public int getReservesSize(PylosPlayerColor color) {
-        return (color == PylosPlayerColor.LIGHT ? reservesLight : reservesDark).size();
+        return reservesSize[color.ordinal()];
+    }
+
+    /**
+     * returns a copy of the current position, including the sphere ids at every location and the reserve order
+     *
+     * @return
+     */
+    public PylosBoardSnapshot snapshot() {
+        byte[] spheres = new byte[allLocations.length];
+        for (PylosLocation location : allLocations) {
+            PylosSphere sphere = location.getSphere();
+            spheres[location.ID] = sphere == null ? PylosBoardSnapshot.NO_SPHERE : (byte) (sphere.PLAYER_COLOR.ordinal() * SPHERES_PER_PLAYER + sphere.ID);
+        }
+        byte[][] reserves = new byte[2][];
+        for (int c = 0; c < 2; c++) {
+            reserves[c] = new byte[reservesSize[c]];
+            for (int i = 0; i < reservesSize[c]; i++) {
+                reserves[c][i] = (byte) this.reserves[c][i];
+            }
+        }
+        return new PylosBoardSnapshot(SIZE, state.clone(), hash, spheres, reserves);
+    }
+
+    /**
+     * replaces the position of this board by the position of 'snapshot'
+     *
+     * @param snapshot
+     */
+    public void restore(PylosBoardSnapshot snapshot) {
+        if (snapshot.SIZE != SIZE) {
+            throw new IllegalArgumentException("Can't restore a snapshot of size " + snapshot.SIZE + " on a board of size " + SIZE);
+        }
+        reset();
+
+        /* locations are ordered bottom up, so every sphere is put on a usable location */
+        for (PylosLocation location : allLocations) {
+            int sphereIndex = snapshot.getSphere(location.ID);
+            if (sphereIndex < 0) continue;
+            PylosSphere sphere = allSpheres[sphereIndex];
+            setBit(location, sphere.PLAYER_COLOR);
+            location.put(sphere);
+        }
+
+        for (int c = 0; c < 2; c++) {
+            Arrays.fill(reserveIndex[c], -1);
+            reservesSize[c] = snapshot.getReservesSize(c);
+            for (int i = 0; i < reservesSize[c]; i++) {
+                int id = snapshot.getReserve(c, i);
+                reserves[c][i] = id;
+                reserveIndex[c][id] = i;
+            }
+        }
+        assert Arrays.equals(state, snapshot.toLongArray()) && hash == snapshot.HASH : "Restored position differs from the snapshot";
+    }
+
+    /**
+     * replaces the position of this board by the long representation 'state' (see toLong()).
+     * The spheres of each color get ids 0, 1, 2, .. in location order, the reserves hold the remaining ids with the
+     * lowest one on top, as they would after a game in which no sphere was ever removed.
+     *
+     * @param state
+     */
+    public void load(long state) {
+        checkStandard();
+        if ((state & ~PylosSymmetry.STATE_MASK) != 0) {
+            throw new IllegalArgumentException("Not a board state, bits above the last location are set: " + Long.toHexString(state));
+        }
+        long used = 0;
+        int nLight = 0;
+        int nDark = 0;
+        for (int i = 0; i < allLocations.length; i++) {
+            int bits = (int) (state >>> (i * 2)) & 3;
+            if (bits == 0) continue;
+            if (bits == 3) {
+                throw new IllegalArgumentException("Not a board state, location " + allLocations[i].toStringCoords() + " holds both colors");
+            }
+            used |= 1L << i;
+            if (bits == 1) nLight++;
+            else nDark++;
+        }
+        if (nLight > SPHERES_PER_PLAYER || nDark > SPHERES_PER_PLAYER) {
+            throw new IllegalArgumentException("Not a board state, more than " + SPHERES_PER_PLAYER + " spheres of one color");
+        }
+        for (long m = used; m != 0; m &= m - 1) {
+            int i = Long.numberOfTrailingZeros(m);
+            if ((used & PylosBitBoard.BELOW[i]) != PylosBitBoard.BELOW[i]) {
+                throw new IllegalArgumentException("Not a board state, location " + allLocations[i].toStringCoords() + " is not supported");
+            }
+        }
+
+        reset();
+        int nextLight = 0;
+        int nextDark = 0;
+        for (PylosLocation location : allLocations) {
+            int bits = (int) (state >>> (location.ID * 2)) & 3;
+            if (bits == 0) continue;
+            PylosSphere sphere = bits == 1 ? spheresLight[nextLight++] : spheresDark[nextDark++];
+            setBit(location, sphere.PLAYER_COLOR);
+            popReserve(sphere);
+            location.put(sphere);
+        }
+    }
+
+    /**
+     * returns a new board with the same position as this board
+     *
+     * @return
+     */
+    public PylosBoard copy() {
+        return fromSnapshot(snapshot());
+    }
+
+    /**
+     * returns a mask with bit PylosLocation.ID set for every used location (standard board only, like all masks)
+     *
+     * @return
+     */
+    public long getUsedLocations() {
+        checkStandard();
+        return usedMask;
+    }
+
+    /**
+     * returns a mask with bit PylosLocation.ID set for every location used by a sphere of 'color'
+     *
+     * @param color
+     * @return
+     */
+    public long getUsedLocations(PylosPlayerColor color) {
+        checkStandard();
+        return color == PylosPlayerColor.DARK ? darkMask : usedMask & ~darkMask;
+    }
+
+    /**
+     * returns a mask with bit PylosLocation.ID set for every usable location
+     *
+     * @return
+     */
+    public long getUsableLocations() {
+        checkStandard();
+        return PylosBitBoard.usable(usedMask);
+    }
+
+    /**
+     * returns a mask with bit s set for every square getAllSquares()[s] filled with spheres of 'color'
+     *
+     * @param color
+     * @return
+     */
+    public int getFullSquares(PylosPlayerColor color) {
+        return PylosBitBoard.fullSquares(getUsedLocations(color));
+    }
+
+    /**
+     * returns a mask with bit s set for every square getAllSquares()[s] holding 3 spheres of 'color' and an empty
+     * location, 'color' completes it with one more sphere
+     *
+     * @param color
+     * @return
+     */
+    public int getSquareThreats(PylosPlayerColor color) {
+        return PylosBitBoard.squareThreats(getUsedLocations(color), usedMask);
+    }
+
+    /**
+     * returns a mask with bit s set for every square getAllSquares()[s] holding 3 spheres of 'color' and 1 sphere of
+     * the other color, the square can no longer be completed by 'color'
+     *
+     * @param color
+     * @return
+     */
+    public int getBlockedSquares(PylosPlayerColor color) {
+        return PylosBitBoard.blockedSquares(getUsedLocations(color), usedMask);
+    }
+
+    /**
+     * returns the number of squares filled with spheres of 'color' (every size). The square counts are kept up to date
+     * by the squares on every add, move and remove, reading them costs no scan of the squares.
+     *
+     * @param color
+     * @return
+     */
+    public int getFullSquareCount(PylosPlayerColor color) {
+        return squareCounts[PylosSquare.FULL + color.ordinal()];
+    }
+
+    /**
+     * returns the number of squares holding 3 spheres of 'color' and an empty location (every size)
+     *
+     * @param color
+     * @return
+     */
+    public int getSquareThreatCount(PylosPlayerColor color) {
+        return squareCounts[PylosSquare.THREAT + color.ordinal()];
+    }
+
+    /**
+     * returns the number of squares holding 3 spheres of 'color' and 1 sphere of the other color (every size)
+     *
+     * @param color
+     * @return
+     */
+    public int getBlockedSquareCount(PylosPlayerColor color) {
+        return squareCounts[PylosSquare.BLOCKED + color.ordinal()];
+    }
+
+    /**
+     * returns a mask with bit PylosLocation.ID set for every location holding a sphere of 'color' without spheres
+     * above, these spheres can be removed or moved to a higher level
+     *
+     * @param color
+     * @return
+     */
+    public long getRemovableLocations(PylosPlayerColor color) {
+        return PylosBitBoard.free(getUsedLocations(color), usedMask);
+    }
+
+    /**
+     * sets targets[id] to the mask of locations the sphere of 'color' at location 'id' can be moved up to and returns a
+     * mask of the locations with at least one target, together all legal moves of spheres on the board of 'color'
+     * ('targets' should hold a long for every location, entries of other locations are not touched)
+     *
+     * @param color
+     * @param targets
+     * @return
+     */
+    public long getMoveTargets(PylosPlayerColor color, long[] targets) {
+        return PylosBitBoard.moveTargets(getUsedLocations(color), usedMask, targets);
+    }
+
+    /**
+     * fills 'buffer' with all legal moves (encoded by PylosMove) of 'color' in game state 'state' and returns the
+     * number of moves, 'buffer' should hold at least MAX_MOVES moves
+     * <p>
+     * MOVE: first all moves of a sphere to a higher level, then all additions of a reserve sphere
+     * REMOVE_FIRST: all removals
+     * REMOVE_SECOND: all removals, then a pass
+     *
+     * @param state
+     * @param color
+     * @param buffer
+     * @return
+     */
+    public int generateMoves(PylosGameState state, PylosPlayerColor color, int[] buffer) {
+        if (!standard) return generateMovesFromLocations(state, color, buffer);
+        long spheres = color == PylosPlayerColor.DARK ? darkMask : usedMask & ~darkMask;
+        int n = 0;
+        switch (state) {
+            case MOVE: {
+                long usable = PylosBitBoard.usable(usedMask);
+                for (long m = PylosBitBoard.free(spheres, usedMask); m != 0; m &= m - 1) {
+                    int from = Long.numberOfTrailingZeros(m);
+                    int sphereId = allLocations[from].getSphere().ID;
+                    for (long t = PylosBitBoard.targets(from, usable); t != 0; t &= t - 1) {
+                        buffer[n++] = PylosMove.move(sphereId, from, Long.numberOfTrailingZeros(t));
+                    }
+                }
+                if (hasReserves(color)) {
+                    int sphereId = getReserve(color).ID;
+                    for (long t = usable; t != 0; t &= t - 1) {
+                        buffer[n++] = PylosMove.add(sphereId, Long.numberOfTrailingZeros(t));
+                    }
+                }
+                break;
+            }
+            case REMOVE_FIRST:
+            case REMOVE_SECOND: {
+                for (long m = PylosBitBoard.free(spheres, usedMask); m != 0; m &= m - 1) {
+                    int from = Long.numberOfTrailingZeros(m);
+                    buffer[n++] = PylosMove.remove(allLocations[from].getSphere().ID, from);
+                }
+                if (state == PylosGameState.REMOVE_SECOND) {
+                    buffer[n++] = PylosMove.pass();
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return n;
     }
 
     /* package accessible ----------------------------------------------------------------------------------------- */
 
     void reset() {
-        state = 0;
-        reservesLight.clear();
-        reservesDark.clear();
+        Arrays.fill(state, 0);
+        hash = 0;
+        usedMask = 0;
+        darkMask = 0;
 
         for (PylosLocation pl : allLocations) {
             if (pl.isUsed()) pl.remove();
@@ -415,15 +646,28 @@ public class PylosBoard {
         for (int i = SPHERES_PER_PLAYER - 1; i >= 0; i--) {
             PylosSphere spLight = spheresLight[i];
             if (spLight.pylosLocation != null) spLight.pylosLocation.remove();
-            reservesLight.add(spLight);
             PylosSphere spDark = spheresDark[i];
             if (spDark.pylosLocation != null) spDark.pylosLocation.remove();
-            reservesDark.add(spDark);
         }
+        resetReserves();
+    }
+
+    /**
+     * returns true if the sphere at 'from' can be moved up to 'to', see PylosSphere.canMoveTo(..)
+     */
+    boolean canMoveUp(PylosLocation from, PylosLocation to) {
+        if (standard) {
+            long below = PylosBitBoard.BELOW[to.ID];
+            return (usedMask & PylosBitBoard.ABOVE[from.ID]) == 0
+                    && (PylosBitBoard.UP[from.ID] & 1L << to.ID) != 0
+                    && (usedMask & 1L << to.ID) == 0
+                    && (usedMask & below) == below;
+        }
+        return !from.hasAbove() && to.isUsable() && from.Z < to.Z && !from.isBelow(to);
     }
 
     boolean hasReserves(PylosPlayerColor playerColor) {
-        return !(playerColor == PylosPlayerColor.LIGHT ? reservesLight : reservesDark).isEmpty();
+        return reservesSize[playerColor.ordinal()] > 0;
     }
 
     protected void remove(PylosSphere sphere) {
@@ -432,7 +676,7 @@ public class PylosBoard {
 
         clearBit(sphere.getLocation());
         sphere.pylosLocation.remove();
-        (sphere.PLAYER_COLOR == PylosPlayerColor.LIGHT ? reservesLight : reservesDark).add(sphere);
+        pushReserve(sphere);
     }
 
     protected boolean add(PylosSphere reserveSphere, PylosLocation toLocation) {
@@ -440,8 +684,9 @@ public class PylosBoard {
         assert toLocation.isUsable() : toLocation + " is not usable";
 
         setBit(toLocation, reserveSphere.PLAYER_COLOR);
-        (reserveSphere.PLAYER_COLOR == PylosPlayerColor.LIGHT ? reservesLight : reservesDark).remove(reserveSphere);
-        return toLocation.put(reserveSphere);
+        popReserve(reserveSphere);
+        toLocation.put(reserveSphere);
+        return completesSquare(toLocation, reserveSphere.PLAYER_COLOR);
     }
 
     protected boolean move(PylosSphere sphere, PylosLocation toLocation) {
@@ -456,7 +701,8 @@ public class PylosBoard {
         clearBit(fromLocation);
         setBit(toLocation, sphere.PLAYER_COLOR);
         fromLocation.remove();
-        return toLocation.put(sphere);
+        toLocation.put(sphere);
+        return completesSquare(toLocation, sphere.PLAYER_COLOR);
     }
 
     protected boolean moveDown(PylosSphere sphere, PylosLocation toLocation) {
@@ -471,68 +717,164 @@ public class PylosBoard {
         clearBit(fromLocation);
         setBit(toLocation, sphere.PLAYER_COLOR);
         fromLocation.remove();
-        return toLocation.put(sphere);
+        toLocation.put(sphere);
+        return completesSquare(toLocation, sphere.PLAYER_COLOR);
     }
 
-    long toLongIfRemove(PylosSphere sphere) {
-        return clearBit(state, sphere.getLocation());
+    /* reserves --------------------------------------------------------------------------------------------------- */
+
+    /**
+     * puts all spheres back in the reserves, sphere 0 on top
+     */
+    private void resetReserves() {
+        for (int c = 0; c < 2; c++) {
+            for (int i = 0; i < SPHERES_PER_PLAYER; i++) {
+                reserves[c][i] = SPHERES_PER_PLAYER - 1 - i;
+                reserveIndex[c][SPHERES_PER_PLAYER - 1 - i] = i;
+            }
+            reservesSize[c] = SPHERES_PER_PLAYER;
+        }
     }
 
-    long toLongIfAdd(PylosSphere reserveSphere, PylosLocation toLocation) {
-        return setBit(state, toLocation, reserveSphere.PLAYER_COLOR);
+    private void pushReserve(PylosSphere sphere) {
+        int c = sphere.PLAYER_COLOR.ordinal();
+        int index = reservesSize[c]++;
+        reserves[c][index] = sphere.ID;
+        reserveIndex[c][sphere.ID] = index;
     }
 
-    long toLongIfMove(PylosSphere sphere, PylosLocation toLocation) {
-        PylosLocation fromLocation = sphere.getLocation();
-        long tmp = clearBit(state, fromLocation);
-        return setBit(tmp, toLocation, sphere.PLAYER_COLOR);
+    /**
+     * takes 'sphere' out of the reserves in constant time: if it isn't the top, the top sphere takes its place (only
+     * then the order of the reserves changes, the searches always take the top)
+     */
+    private void popReserve(PylosSphere sphere) {
+        int c = sphere.PLAYER_COLOR.ordinal();
+        int[] stack = reserves[c];
+        int[] index = reserveIndex[c];
+        int top = --reservesSize[c];
+        int i = index[sphere.ID];
+        stack[i] = stack[top];
+        index[stack[i]] = i;
+        index[sphere.ID] = -1;
     }
 
-    PylosSphere getSphere(PylosPlayerColor playerColor, int id) {
-        return playerColor == PylosPlayerColor.LIGHT ? spheresLight[id] : spheresDark[id];
+    /**
+     * returns true if 'location' is part of a square filled with spheres of 'color'
+     */
+    private boolean completesSquare(PylosLocation location, PylosPlayerColor color) {
+        if (standard) return PylosBitBoard.inSquare(location.ID, getUsedLocations(color));
+        for (PylosSquare square : location.squares) {
+            if (square.isSquare(color)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * generateMoves(..) for boards without masks, same moves in the same order
+     */
+    private int generateMovesFromLocations(PylosGameState state, PylosPlayerColor color, int[] buffer) {
+        int n = 0;
+        switch (state) {
+            case MOVE: {
+                for (PylosLocation from : allLocations) {
+                    PylosSphere sphere = from.getSphere();
+                    if (sphere == null || sphere.PLAYER_COLOR != color || from.hasAbove() || from.Z == SIZE - 1) continue;
+                    for (int to = topology.getLocationId(0, 0, from.Z + 1); to < allLocations.length; to++) {
+                        if (allLocations[to].isUsable() && !from.isBelow(allLocations[to])) {
+                            buffer[n++] = PylosMove.move(sphere.ID, from.ID, to);
+                        }
+                    }
+                }
+                if (hasReserves(color)) {
+                    int sphereId = getReserve(color).ID;
+                    for (PylosLocation to : allLocations) {
+                        if (to.isUsable()) buffer[n++] = PylosMove.add(sphereId, to.ID);
+                    }
+                }
+                break;
+            }
+            case REMOVE_FIRST:
+            case REMOVE_SECOND: {
+                for (PylosLocation from : allLocations) {
+                    PylosSphere sphere = from.getSphere();
+                    if (sphere != null && sphere.PLAYER_COLOR == color && !from.hasAbove()) {
+                        buffer[n++] = PylosMove.remove(sphere.ID, from.ID);
+                    }
+                }
+                if (state == PylosGameState.REMOVE_SECOND) {
+                    buffer[n++] = PylosMove.pass();
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return n;
+    }
+
+    /* keys for the draw detection of PylosGame: the exact state on the standard board, the hash on other boards */
+
+    long toKey() {
+        return standard ? state[0] : hash;
+    }
+
+    long toKeyIfRemove(PylosSphere sphere) {
+        PylosLocation location = sphere.getLocation();
+        if (!standard) return hash ^ PylosZobrist.LOCATION[location.ID][sphere.PLAYER_COLOR.ordinal()];
+        return clearBit(state[0], location);
+    }
+
+    long toKeyIfAdd(PylosSphere reserveSphere, PylosLocation toLocation) {
+        if (!standard) return hash ^ PylosZobrist.LOCATION[toLocation.ID][reserveSphere.PLAYER_COLOR.ordinal()];
+        return setBit(state[0], toLocation, reserveSphere.PLAYER_COLOR);
+    }
+
+    long toKeyIfMove(PylosSphere sphere, PylosLocation toLocation) {
+        PylosLocation fromLocation = sphere.getLocation();
+        int color = sphere.PLAYER_COLOR.ordinal();
+        if (!standard) return hash ^ PylosZobrist.LOCATION[fromLocation.ID][color] ^ PylosZobrist.LOCATION[toLocation.ID][color];
+        long tmp = clearBit(state[0], fromLocation);
+        return setBit(tmp, toLocation, sphere.PLAYER_COLOR);
     }
 
     /* internals -------------------------------------------------------------------------------------------------- */
 
+    private void checkStandard() {
+        if (!standard) {
+            throw new IllegalStateException("Only supported on the standard board, this board has " + SIZE + " layers");
+        }
+    }
+
     private void setBit(PylosLocation location, PylosPlayerColor color) {
         assert color != null;
-        state |= BIT_MASK_FOR_OR[location.Z][location.X][location.Y][color.ordinal()];
-//		System.out.println(Long.toString(state, 2) + "\t" + state);
+        int shift = (location.ID % LOCATIONS_PER_WORD) * 2;
+        state[location.ID / LOCATIONS_PER_WORD] |= 1L << (shift + color.ordinal());
+        hash ^= PylosZobrist.LOCATION[location.ID][color.ordinal()];
+        if (standard) {
+            usedMask |= 1L << location.ID;
+            if (color == PylosPlayerColor.DARK) darkMask |= 1L << location.ID;
+        }
     }
 
     private void clearBit(PylosLocation location) {
-        state &= BIT_MASK_FOR_AND[location.Z][location.X][location.Y][0];
-        state &= BIT_MASK_FOR_AND[location.Z][location.X][location.Y][1];
+        int word = location.ID / LOCATIONS_PER_WORD;
+        int shift = (location.ID % LOCATIONS_PER_WORD) * 2;
+        int color = (int) ((state[word] >>> (shift + 1)) & 1);
+        hash ^= PylosZobrist.LOCATION[location.ID][color];
+        state[word] &= ~(3L << shift);
+        if (standard) {
+            usedMask &= ~(1L << location.ID);
+            darkMask &= ~(1L << location.ID);
+        }
     }
 
-    private long setBit(long state, PylosLocation location, PylosPlayerColor color) {
+    private static long setBit(long state, PylosLocation location, PylosPlayerColor color) {
         assert color != null;
-        state |= BIT_MASK_FOR_OR[location.Z][location.X][location.Y][color.ordinal()];
-        return state;
-    }
-
-    private long clearBit(long state, PylosLocation location) {
-        state &= BIT_MASK_FOR_AND[location.Z][location.X][location.Y][0];
-        state &= BIT_MASK_FOR_AND[location.Z][location.X][location.Y][1];
-        return state;
-    }
-
-    private void link(PylosLocation location) {
-        if (location.Z > 0) {
-            link(location, getBoardLocation(location.X, location.Y, location.Z - 1));
-            link(location, getBoardLocation(location.X + 1, location.Y, location.Z - 1));
-            link(location, getBoardLocation(location.X, location.Y + 1, location.Z - 1));
-            link(location, getBoardLocation(location.X + 1, location.Y + 1, location.Z - 1));
-            link(getBoardLocation(location.X, location.Y, location.Z - 1));
-            link(getBoardLocation(location.X + 1, location.Y, location.Z - 1));
-            link(getBoardLocation(location.X, location.Y + 1, location.Z - 1));
-            link(getBoardLocation(location.X + 1, location.Y + 1, location.Z - 1));
-        }
+        return state | 1L << (location.ID * 2 + color.ordinal());
     }
 
-    private void link(PylosLocation above, PylosLocation below) {
-        if (!above.below.contains(below)) above.below.add(below);
-        if (!below.above.contains(above)) below.above.add(above);
+    private static long clearBit(long state, PylosLocation location) {
+        return state & ~(3L << (location.ID * 2));
     }
 
 }
@@ -0,0 +1,75 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * Immutable copy of the position of a PylosBoard, taken with PylosBoard.snapshot().
+ * <p>
+ * Next to the long state it keeps which sphere is at which location and the order of the reserves, so
+ * PylosBoard.restore(..) rebuilds exactly the same board: every sphere id, and so every packed PylosMove, stays
+ * valid. A snapshot holds only primitives and can be handed to other threads, each restoring it into a board of its
+ * own (see PylosBoard.fromSnapshot(..) and PylosBitBoard.fromSnapshot(..)).
+ */
+public final class PylosBoardSnapshot {
+
+    public final int SIZE;
+    public final long HASH;
+
+    private final long[] state;         // see PylosBoard.toLongArray()
+    private final byte[] spheres;       // [location id] = index in PylosBoard.getSpheres() (unsigned), NO_SPHERE if not used
+    private final byte[][] reserves;    // [color] = sphere ids of the reserves, the last one on top
+
+    static final byte NO_SPHERE = (byte) 0xFF;
+
+    PylosBoardSnapshot(int size, long[] state, long hash, byte[] spheres, byte[][] reserves) {
+        SIZE = size;
+        HASH = hash;
+        this.state = state;
+        this.spheres = spheres;
+        this.reserves = reserves;
+    }
+
+    /**
+     * returns the index in PylosBoard.getSpheres() of the sphere at 'locationId', or -1 if the location is not used
+     *
+     * @param locationId
+     * @return
+     */
+    public int getSphere(int locationId) {
+        return spheres[locationId] == NO_SPHERE ? -1 : spheres[locationId] & 0xFF;
+    }
+
+    /**
+     * returns the long representation of the position, see PylosBoard.toLong() (standard board only)
+     *
+     * @return
+     */
+    public long toLong() {
+        if (SIZE != PylosBoard.STANDARD_SIZE) {
+            throw new IllegalStateException("Only the standard board has a long representation");
+        }
+        return state[0];
+    }
+
+    /**
+     * returns a copy of the representation of the position, see PylosBoard.toLongArray()
+     *
+     * @return
+     */
+    public long[] toLongArray() {
+        return state.clone();
+    }
+
+    public int getReservesSize(PylosPlayerColor color) {
+        return getReservesSize(color.ordinal());
+    }
+
+    /* package methods -------------------------------------------------------------------------------------------- */
+
+    int getReservesSize(int color) {
+        return reserves[color].length;
+    }
+
+    int getReserve(int color, int index) {
+        return reserves[color][index] & 0xFF;
+    }
+
+}
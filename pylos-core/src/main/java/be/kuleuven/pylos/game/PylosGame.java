@@ -25,6 +25,7 @@ public class PylosGame implements PylosGameIF {
     private PylosPlayer winner = null;
     private int nReservesOfWinner = -1;
     private boolean abortFlag = false;
+    private PylosPlayer waitingPlayer;      // told that the turn of the other player started, null if none
 
     /* constructor ------------------------------------------------------------------------------------------------ */
 
@@ -146,7 +147,7 @@ public class PylosGame implements PylosGameIF {
         assert currentState == PylosGameState.MOVE : "Method not supported in this state (" + currentState + ")";
         assert pylosSphere.PLAYER_COLOR == currentPlayer.PLAYER_COLOR : currentPlayer.PLAYER_COLOR + " can not move a sphere of " + currentPlayer.PLAYER_COLOR.other();
 
-        long resultState = pylosSphere.isReserve() ? board.toLongIfAdd(pylosSphere, toLocation) : board.toLongIfMove(pylosSphere, toLocation);
+        long resultState = pylosSphere.isReserve() ? board.toKeyIfAdd(pylosSphere, toLocation) : board.toKeyIfMove(pylosSphere, toLocation);
         return isDrawState(resultState);
     }
 
@@ -155,7 +156,7 @@ public class PylosGame implements PylosGameIF {
         assert currentState != PylosGameState.MOVE : "Method not supported in this state (" + currentState + ")";
         assert pylosSphere.PLAYER_COLOR == currentPlayer.PLAYER_COLOR : currentPlayer.PLAYER_COLOR + "can't remove a sphere of " + currentPlayer.PLAYER_COLOR.other();
 
-        long resultState = board.toLongIfRemove(pylosSphere);
+        long resultState = board.toKeyIfRemove(pylosSphere);
         return isDrawState(resultState);
     }
 
@@ -163,7 +164,7 @@ public class PylosGame implements PylosGameIF {
     public boolean passIsDraw() {
         assert currentState == PylosGameState.REMOVE_SECOND : "Method not supported in this state (" + currentState + ")";
 
-        return isDrawState(board.toLong());
+        return isDrawState(board.toKey());
     }
 
     @Override
@@ -188,6 +189,7 @@ public class PylosGame implements PylosGameIF {
         try {
             switch (currentState) {
                 case MOVE:
+                    startOtherTurn();
                     gameObserver.aboutToCall(PylosGameState.MOVE, currentPlayer);
                     gameObserver.println(currentPlayer + ": add/move");
                     currentPlayer.doMove(this, board);
@@ -214,15 +216,70 @@ public class PylosGame implements PylosGameIF {
                     throw new IllegalStateException("The game is finished... " + currentState);
             }
             if (abortFlag) setState(PylosGameState.ABORTED);
+            if (currentPlayer != cPlayer || isFinished()) {
+                finishOtherTurn();
+            }
             if (isFinished()) {
                 signalFinished();
             }
         }
+        catch(PylosGameCrashedException e){
+            abortOtherTurn(e);
+            throw e;
+        }
         catch(Exception e){
+            abortOtherTurn(e);
             throw new PylosGameCrashedException(currentPlayer, currentPlayer.OTHER, e);
         }
     }
 
+    /**
+     * tells the other player that the turn of the current player starts, a crash is charged to the other player
+     */
+    private void startOtherTurn() {
+        waitingPlayer = currentPlayer == playerLight ? playerDark : playerLight;
+        try {
+            waitingPlayer.otherTurnStarted(board);
+        }
+        catch(Exception e){
+            PylosPlayer player = waitingPlayer;
+            abortOtherTurn(e);
+            throw new PylosGameCrashedException(player, player.OTHER, e);
+        }
+    }
+
+    /**
+     * tells the waiting player that the turn of the other player is over, so it stops pondering, a crash is charged
+     * to the waiting player
+     */
+    private void finishOtherTurn() {
+        if (waitingPlayer == null) return;
+        PylosPlayer player = waitingPlayer;
+        waitingPlayer = null;
+        try {
+            player.otherTurnFinished(board);
+        }
+        catch(Exception e){
+            throw new PylosGameCrashedException(player, player.OTHER, e);
+        }
+    }
+
+    /**
+     * tells the waiting player that the turn is over after 'crash', a failure of the waiting player is added to
+     * 'crash' as a suppressed exception instead of hiding it
+     */
+    private void abortOtherTurn(Exception crash) {
+        if (waitingPlayer == null) return;
+        PylosPlayer player = waitingPlayer;
+        waitingPlayer = null;
+        try {
+            player.otherTurnFinished(board);
+        }
+        catch(Exception e){
+            crash.addSuppressed(e);
+        }
+    }
+
     private void switchPlayer() {
         currentPlayer = currentPlayer == playerLight ? playerDark : playerLight;
     }
@@ -245,7 +302,7 @@ public class PylosGame implements PylosGameIF {
     }
 
     private boolean isDrawState() {
-        long boardState = board.toLong();
+        long boardState = board.toKey();
         Integer stateCount = boardStateCounts.get(boardState);
         if (stateCount == null) {
             boardStateCounts.put(boardState, 1);
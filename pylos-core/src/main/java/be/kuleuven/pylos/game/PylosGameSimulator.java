@@ -1,24 +1,50 @@
 package be.kuleuven.pylos.game;
 
+import java.util.Arrays;
+
 /**
  * Created by Jan on 20/02/2015.
  */
 public class PylosGameSimulator {
 
+    private static final PylosGameState[] STATES = PylosGameState.values();
+    private static final PylosPlayerColor[] COLORS = PylosPlayerColor.values();
+
     private final PylosBoard board;
 
     private PylosGameState currentState;
     private PylosPlayerColor currentColor;
     private PylosPlayerColor winner = null;
 
+    /* one entry per applied move: the move in the low 32 bits, the state, color and winner before the move above */
+    private long[] undoStack = new long[64];
+    private int undoSize = 0;
+
     public PylosGameSimulator(PylosGameState gameState, PylosPlayerColor playerColor, PylosBoard board) {
         this.board = board;
         this.currentState = gameState;
         this.currentColor = playerColor;
     }
 
+    /**
+     * returns a simulator on a new standard board with the position of the long representation 'state'
+     * (see PylosBoard.fromLong(..)), with 'playerColor' to play in 'gameState'
+     *
+     * @param state
+     * @param gameState
+     * @param playerColor
+     * @return
+     */
+    public static PylosGameSimulator fromLong(long state, PylosGameState gameState, PylosPlayerColor playerColor) {
+        return new PylosGameSimulator(gameState, playerColor, PylosBoard.fromLong(state));
+    }
+
     /* public getters --------------------------------------------------------------------------------------------- */
 
+    public PylosBoard getBoard() {
+        return board;
+    }
+
     public PylosGameState getState() {
         return currentState;
     }
@@ -33,6 +59,27 @@ public class PylosGameSimulator {
         return currentColor;
     }
 
+    /**
+     * returns a 64 bit Zobrist hash of the simulated position: the spheres on the board (and thus the reserves),
+     * the color to move and the game state
+     *
+     * @return
+     */
+    public long getHash() {
+        return board.getHash() ^ PylosZobrist.state(currentState, currentColor);
+    }
+
+    /**
+     * fills 'buffer' with all legal moves for the current state and color and returns the number of moves,
+     * see PylosBoard.generateMoves(..)
+     *
+     * @param buffer
+     * @return
+     */
+    public int generateMoves(int[] buffer) {
+        return board.generateMoves(currentState, currentColor, buffer);
+    }
+
     /* public game methods ---------------------------------------------------------------------------------------- */
 
     /* do */
@@ -76,14 +123,83 @@ public class PylosGameSimulator {
         }
     }
 
-    /* undo */
-
     public void pass() {
         assert currentState == PylosGameState.REMOVE_SECOND : "Method not supported in this state (" + currentState + ")";
         setState(PylosGameState.MOVE);
         switchPlayerColor();
     }
 
+    /**
+     * performs a move encoded by PylosMove for the current color, it can be reverted with undo()
+     *
+     * @param move
+     */
+    public void apply(int move) {
+        if (undoSize == undoStack.length) {
+            undoStack = Arrays.copyOf(undoStack, undoSize * 2);
+        }
+        undoStack[undoSize++] = (move & 0xFFFFFFFFL)
+                | (long) currentState.ordinal() << 32
+                | (long) currentColor.ordinal() << 40
+                | (long) (winner == null ? 0 : winner.ordinal() + 1) << 48;
+
+        switch (PylosMove.getType(move)) {
+            case PylosMove.ADD:
+            case PylosMove.MOVE:
+                moveSphere(board.getSphere(currentColor, PylosMove.getSphere(move)), board.getLocations()[PylosMove.getTo(move)]);
+                break;
+            case PylosMove.REMOVE:
+                removeSphere(board.getSphere(currentColor, PylosMove.getSphere(move)));
+                break;
+            case PylosMove.PASS:
+                pass();
+                break;
+            default:
+                undoSize--;
+                throw new IllegalArgumentException("Not a move: " + move);
+        }
+    }
+
+    /**
+     * reverts the last move performed with apply(..)
+     */
+    public void undo() {
+        assert undoSize > 0 : "No move to undo";
+        long entry = undoStack[--undoSize];
+        int move = (int) entry;
+        PylosGameState prevState = STATES[(int) (entry >>> 32) & 0xFF];
+        PylosPlayerColor prevColor = COLORS[(int) (entry >>> 40) & 0xFF];
+        int prevWinner = (int) (entry >>> 48) & 0xFF;
+
+        PylosSphere sphere = board.getSphere(prevColor, PylosMove.getSphere(move));
+        switch (PylosMove.getType(move)) {
+            case PylosMove.ADD:
+                board.remove(sphere);
+                break;
+            case PylosMove.MOVE:
+                board.moveDown(sphere, board.getLocations()[PylosMove.getFrom(move)]);
+                break;
+            case PylosMove.REMOVE:
+                board.add(sphere, board.getLocations()[PylosMove.getFrom(move)]);
+                break;
+            default:
+                break;
+        }
+        reset(prevState, prevColor);
+        winner = prevWinner == 0 ? null : COLORS[prevWinner - 1];
+    }
+
+    /**
+     * returns the number of moves performed with apply(..) that can still be undone
+     *
+     * @return
+     */
+    public int getUndoSize() {
+        return undoSize;
+    }
+
+    /* undo */
+
     public void undoMoveSphere(PylosSphere pylosSphere, PylosLocation prevLocation, PylosGameState prevState, PylosPlayerColor prevColor) {
         assert currentState != PylosGameState.REMOVE_SECOND : currentState;
         board.moveDown(pylosSphere, prevLocation);
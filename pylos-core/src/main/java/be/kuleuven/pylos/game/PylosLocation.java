@@ -11,6 +11,7 @@ import java.util.List;
  */
 public class PylosLocation {
 
+    public final int ID;
     public final int X, Y, Z;
     final ArrayList<PylosLocation> above = new ArrayList<>();
     final ArrayList<PylosLocation> below = new ArrayList<>();
@@ -22,7 +23,8 @@ public class PylosLocation {
 
     /* package constructor ---------------------------------------------------------------------------------------- */
 
-    PylosLocation(int x, int y, int z) {
+    PylosLocation(int id, int x, int y, int z) {
+        ID = id;
         X = x;
         Y = y;
         Z = z;
@@ -31,9 +33,8 @@ public class PylosLocation {
 
     /* package methods -------------------------------------------------------------------------------------------- */
 
-    boolean put(PylosSphere pylosSphere) {
+    void put(PylosSphere pylosSphere) {
         assert isUsable() : this + " is not usable";
-        boolean completedSquare = false;
         for (PylosLocation blAbove : above) {
             blAbove.nUsedBelow++;
         }
@@ -42,11 +43,9 @@ public class PylosLocation {
         }
         for (PylosSquare bsInSquare : squares) {
             bsInSquare.inc(pylosSphere.PLAYER_COLOR);
-            completedSquare |= bsInSquare.isSquare(pylosSphere.PLAYER_COLOR);
         }
         this.pylosSphere = pylosSphere;
         this.pylosSphere.pylosLocation = this;
-        return completedSquare;
     }
 
     PylosSphere remove() {
@@ -0,0 +1,162 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * Packed int encoding of a move, used by PylosGameSimulator.apply(..) and undo().
+ * <p>
+ * <pre>
+ * .....ttt ssssssss ffffffff oooooooo
+ *
+ * t: type (ADD, MOVE, REMOVE or PASS)
+ * s: id of the sphere (of the color to move)
+ * f: id of the location the sphere comes from (MOVE, REMOVE)
+ * o: id of the location the sphere goes to (ADD, MOVE)
+ * </pre>
+ * Unused location fields hold NO_LOCATION. The value 0 (NONE) is never a valid move.
+ */
+public final class PylosMove {
+
+    public static final int NONE = 0;
+
+    /* types */
+    public static final int ADD = 1;
+    public static final int MOVE = 2;
+    public static final int REMOVE = 3;
+    public static final int PASS = 4;
+
+    public static final int NO_LOCATION = 0xFF;
+
+    private static final int FROM_SHIFT = 8;
+    private static final int SPHERE_SHIFT = 16;
+    private static final int TYPE_SHIFT = 24;
+
+    private static final int PASS_MOVE = encode(PASS, 0, NO_LOCATION, NO_LOCATION);
+
+    private PylosMove() {
+    }
+
+    /* create ----------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns a move that puts reserve sphere 'sphereId' at location 'to'
+     *
+     * @param sphereId
+     * @param to
+     * @return
+     */
+    public static int add(int sphereId, int to) {
+        return encode(ADD, sphereId, NO_LOCATION, to);
+    }
+
+    /**
+     * returns a move that moves sphere 'sphereId' from location 'from' to the higher location 'to'
+     *
+     * @param sphereId
+     * @param from
+     * @param to
+     * @return
+     */
+    public static int move(int sphereId, int from, int to) {
+        return encode(MOVE, sphereId, from, to);
+    }
+
+    /**
+     * returns a move that removes sphere 'sphereId' from location 'from'
+     *
+     * @param sphereId
+     * @param from
+     * @return
+     */
+    public static int remove(int sphereId, int from) {
+        return encode(REMOVE, sphereId, from, NO_LOCATION);
+    }
+
+    public static int pass() {
+        return PASS_MOVE;
+    }
+
+    /**
+     * returns the move that puts 'sphere' at 'to', an ADD for a reserve sphere, a MOVE otherwise
+     *
+     * @param sphere
+     * @param to
+     * @return
+     */
+    public static int of(PylosSphere sphere, PylosLocation to) {
+        return sphere.isReserve() ? add(sphere.ID, to.ID) : move(sphere.ID, sphere.getLocation().ID, to.ID);
+    }
+
+    /**
+     * returns the move that removes 'sphere' from the board
+     *
+     * @param sphere
+     * @return
+     */
+    public static int of(PylosSphere sphere) {
+        return remove(sphere.ID, sphere.getLocation().ID);
+    }
+
+    /* decode ----------------------------------------------------------------------------------------------------- */
+
+    public static int getType(int move) {
+        return move >>> TYPE_SHIFT;
+    }
+
+    public static int getSphere(int move) {
+        return (move >>> SPHERE_SHIFT) & 0xFF;
+    }
+
+    public static int getFrom(int move) {
+        return (move >>> FROM_SHIFT) & 0xFF;
+    }
+
+    public static int getTo(int move) {
+        return move & 0xFF;
+    }
+
+    /**
+     * performs 'move' of the player with 'color' in a real game
+     *
+     * @param move
+     * @param game
+     * @param board
+     * @param color
+     */
+    public static void play(int move, PylosGameIF game, PylosBoard board, PylosPlayerColor color) {
+        switch (getType(move)) {
+            case ADD:
+            case MOVE:
+                game.moveSphere(board.getSphere(color, getSphere(move)), board.getLocations()[getTo(move)]);
+                break;
+            case REMOVE:
+                game.removeSphere(board.getSphere(color, getSphere(move)));
+                break;
+            case PASS:
+                game.pass();
+                break;
+            default:
+                throw new IllegalArgumentException("Not a move: " + move);
+        }
+    }
+
+    public static String toString(int move) {
+        switch (getType(move)) {
+            case ADD:
+                return "add " + getSphere(move) + " to " + getTo(move);
+            case MOVE:
+                return "move " + getSphere(move) + " from " + getFrom(move) + " to " + getTo(move);
+            case REMOVE:
+                return "remove " + getSphere(move) + " from " + getFrom(move);
+            case PASS:
+                return "pass";
+            default:
+                return "none";
+        }
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private static int encode(int type, int sphereId, int from, int to) {
+        return type << TYPE_SHIFT | sphereId << SPHERE_SHIFT | from << FROM_SHIFT | to;
+    }
+
+}
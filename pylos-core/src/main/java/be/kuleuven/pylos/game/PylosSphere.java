@@ -7,11 +7,13 @@ public class PylosSphere {
 
     public final PylosPlayerColor PLAYER_COLOR;
     public final int ID;
+    private final PylosBoard board;
     PylosLocation pylosLocation;
 
     /* package constructor ---------------------------------------------------------------------------------------- */
 
-    PylosSphere(PylosPlayerColor playerColor, int id) {
+    PylosSphere(PylosBoard board, PylosPlayerColor playerColor, int id) {
+        this.board = board;
         PLAYER_COLOR = playerColor;
         ID = id;
     }
@@ -49,13 +51,9 @@ public class PylosSphere {
             /* reserve sphere can be moved to every usable location */
             return location.isUsable();
         } else {
-            if (pylosLocation.hasAbove()) {
-                /* trying to move a sphere which has other spheres above */
-                return false;
-            } else {
-                /* trying to move a used sphere, the location should be on higher level and not above the sphere */
-                return location.isUsable() && pylosLocation.Z < location.Z && !pylosLocation.isBelow(location);
-            }
+            /* trying to move a used sphere: it should have no spheres above, the location should be usable,
+             * on a higher level and not above the sphere (answered with the masks of the board) */
+            return board.canMoveUp(pylosLocation, location);
         }
     }
 
@@ -9,12 +9,38 @@ import java.util.Arrays;
  */
 public class PylosSquare {
 
+    /* offsets in the counts of the board, plus the ordinal of the color */
+    static final int FULL = 0;          // 4 spheres of the color
+    static final int THREAT = 2;        // 3 spheres of the color and an empty location
+    static final int BLOCKED = 4;       // 3 spheres of the color and 1 of the other color
+    static final int NONE = 6;          // less than 3 spheres of each color, a count that is never read
+    static final int COUNTS = 7;
+
+    /* [light * 5 + dark] = the count a square with that many spheres of each color adds to, there is at most one */
+    private static final int[] COUNT_OF = new int[25];
+
+    static {
+        for (int light = 0; light <= 4; light++) {
+            for (int dark = 0; light + dark <= 4; dark++) {
+                int count = NONE;
+                if (light == 4 || dark == 4) {
+                    count = FULL + (light == 4 ? 0 : 1);
+                } else if (light == 3 || dark == 3) {
+                    count = (light + dark == 3 ? THREAT : BLOCKED) + (light == 3 ? 0 : 1);
+                }
+                COUNT_OF[light * 5 + dark] = count;
+            }
+        }
+    }
+
     private final int[] nOfColor = new int[2]; // [0] for Player.LIGHT, [1] for Player.DARK
+    private final int[] counts;         // of the board, kept up to date by inc(..) and dec(..)
     private final PylosLocation[] locations = new PylosLocation[4];
     private final PylosLocation topLocation;
     private int n;
 
-    PylosSquare(PylosLocation bl00, PylosLocation bl10, PylosLocation bl01, PylosLocation bl11, PylosLocation top) {
+    PylosSquare(PylosLocation bl00, PylosLocation bl10, PylosLocation bl01, PylosLocation bl11, PylosLocation top, int[] counts) {
+        this.counts = counts;
         locations[0] = bl00;
         locations[1] = bl10;
         locations[2] = bl01;
@@ -106,16 +132,27 @@ public class PylosSquare {
     /* package methods -------------------------------------------------------------------------------------------- */
 
     boolean inc(PylosPlayerColor color) {
+        counts[countOf()]--;
         nOfColor[color.ordinal()]++;
         n++;
+        counts[countOf()]++;
         assert n == nOfColor[0] + nOfColor[1] : "Total number of spheres is not equal to sum of colors: n=" + n + ", nOfCol=" + Arrays.toString(nOfColor);
         return isSquare(color);
     }
 
     void dec(PylosPlayerColor color) {
+        counts[countOf()]--;
         nOfColor[color.ordinal()]--;
         n--;
+        counts[countOf()]++;
         assert n == nOfColor[0] + nOfColor[1] : "Total number of spheres is not equal to sum of colors: n=" + n + ", nOfCol=" + Arrays.toString(nOfColor);
     }
 
+    /**
+     * returns the count of the board this square adds to, see COUNT_OF
+     */
+    private int countOf() {
+        return COUNT_OF[nOfColor[0] * 5 + nOfColor[1]];
+    }
+
 }
@@ -0,0 +1,148 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * The 8 symmetries (rotations and reflections) of the standard board, applied to the long representation of
+ * PylosBoard.toLong().
+ * <p>
+ * A transform is applied with byte-wise lookup tables: every byte of the state holds 4 locations, and for every
+ * transform and byte position a table maps the byte onto its permuted bits. Nothing is allocated.
+ * <p>
+ * canonicalize(..) returns a key holding the smallest of the 8 symmetric states in the low 60 bits and the index of
+ * the transform that produced it in the 3 highest bits, so callers can map moves between the original and the
+ * canonical position with toCanonicalLocation(..) and toOriginalLocation(..).
+ */
+public final class PylosSymmetry {
+
+    public static final int TRANSFORMS = 8;
+    public static final long STATE_MASK = (1L << (PylosBitBoard.LOCATIONS * 2)) - 1;
+
+    private static final int TRANSFORM_SHIFT = 61;
+    private static final int CHUNKS = (PylosBitBoard.LOCATIONS * 2 + 7) / 8;
+
+    /* [transform][canonical location] = original location */
+    private static final int[][] PERMUTATION = new int[TRANSFORMS][PylosBitBoard.LOCATIONS];
+
+    /* [transform][original location] = canonical location */
+    private static final int[][] INVERSE = new int[TRANSFORMS][PylosBitBoard.LOCATIONS];
+
+    /* [transform][byte position][byte value] = transformed bits */
+    private static final long[][][] TABLE = new long[TRANSFORMS][CHUNKS][256];
+
+    static {
+        for (int t = 0; t < TRANSFORMS; t++) {
+            for (int p = 0; p < PylosBitBoard.LOCATIONS; p++) {
+                int n = PylosBitBoard.SIZE - PylosBitBoard.Z[p];
+                int a = PylosBitBoard.X[p];
+                int b = PylosBitBoard.Y[p];
+                int x, y;
+                switch (t) {
+                    case 0: x = a; y = b; break;
+                    case 1: x = b; y = a; break;
+                    case 2: x = n - 1 - a; y = b; break;
+                    case 3: x = n - 1 - b; y = a; break;
+                    case 4: x = n - 1 - a; y = n - 1 - b; break;
+                    case 5: x = n - 1 - b; y = n - 1 - a; break;
+                    case 6: x = a; y = n - 1 - b; break;
+                    default: x = b; y = n - 1 - a; break;
+                }
+                int original = PylosBitBoard.getLocationId(x, y, PylosBitBoard.Z[p]);
+                PERMUTATION[t][p] = original;
+                INVERSE[t][original] = p;
+            }
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                for (int value = 0; value < 256; value++) {
+                    long bits = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int original = chunk * 4 + i;
+                        if (original >= PylosBitBoard.LOCATIONS) break;
+                        long pair = (value >>> (i * 2)) & 3;
+                        bits |= pair << (INVERSE[t][original] * 2);
+                    }
+                    TABLE[t][chunk][value] = bits;
+                }
+            }
+        }
+    }
+
+    private PylosSymmetry() {
+    }
+
+    /**
+     * returns 'state' with transform 't' applied
+     *
+     * @param state
+     * @param t
+     * @return
+     */
+    public static long transform(long state, int t) {
+        long[][] table = TABLE[t];
+        long result = 0;
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            result |= table[chunk][(int) (state >>> (chunk * 8)) & 0xFF];
+        }
+        return result;
+    }
+
+    /**
+     * returns the canonical key of 'state': the smallest of its 8 symmetric states,
+     * with the index of the applied transform in the highest bits
+     *
+     * @param state
+     * @return
+     */
+    public static long canonicalize(long state) {
+        long lowest = state;
+        int lowestTransform = 0;
+        for (int t = 1; t < TRANSFORMS; t++) {
+            long symmetric = transform(state, t);
+            if (symmetric < lowest) {
+                lowest = symmetric;
+                lowestTransform = t;
+            }
+        }
+        return lowest | ((long) lowestTransform << TRANSFORM_SHIFT);
+    }
+
+    /**
+     * returns the canonical state stored in a key returned by canonicalize(..)
+     *
+     * @param key
+     * @return
+     */
+    public static long getState(long key) {
+        return key & STATE_MASK;
+    }
+
+    /**
+     * returns the transform stored in a key returned by canonicalize(..)
+     *
+     * @param key
+     * @return
+     */
+    public static int getTransform(long key) {
+        return (int) (key >>> TRANSFORM_SHIFT);
+    }
+
+    /**
+     * returns the id of the location in the transformed position that corresponds to 'location' in the original one
+     *
+     * @param t
+     * @param location
+     * @return
+     */
+    public static int toCanonicalLocation(int t, int location) {
+        return INVERSE[t][location];
+    }
+
+    /**
+     * returns the id of the location in the original position that corresponds to 'location' in the transformed one
+     *
+     * @param t
+     * @param location
+     * @return
+     */
+    public static int toOriginalLocation(int t, int location) {
+        return PERMUTATION[t][location];
+    }
+
+}
@@ -0,0 +1,118 @@
+package be.kuleuven.pylos.game;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The immutable geometry of a pyramid of a given size: the coordinates of every location, which locations support
+ * each other and which locations form the squares. It is computed once per size and shared by all boards of that
+ * size, so creating a board only has to create its locations, squares and spheres and wire them together.
+ * <p>
+ * Locations are identified by their index in z, x, y order (PylosLocation.ID), squares by their index in the same
+ * order as PylosBoard.getAllSquares().
+ */
+final class PylosTopology {
+
+    private static final ConcurrentHashMap<Integer, PylosTopology> TOPOLOGIES = new ConcurrentHashMap<>();
+
+    final int SIZE;
+    final int LOCATIONS;
+    final int SQUARES;
+
+    /* indexed by location id */
+    final int[] x;
+    final int[] y;
+    final int[] z;
+    final int[][] below;        // the locations supporting a location (empty on level 0)
+    final int[][] above;        // the locations resting on a location
+    final int[][] squaresOf;    // the squares a location is part of
+
+    /* indexed by square id */
+    final int[][] squareLocations;  // (x, y), (x + 1, y), (x, y + 1), (x + 1, y + 1)
+    final int[] squareTop;
+
+    private final int[] layerOffset;
+
+    private PylosTopology(int size) {
+        SIZE = size;
+        layerOffset = new int[size + 1];
+        for (int l = 0; l < size; l++) {
+            layerOffset[l + 1] = layerOffset[l] + (size - l) * (size - l);
+        }
+        LOCATIONS = layerOffset[size];
+        SQUARES = LOCATIONS - size * size;
+
+        x = new int[LOCATIONS];
+        y = new int[LOCATIONS];
+        z = new int[LOCATIONS];
+        int id = 0;
+        for (int l = 0; l < size; l++) {
+            for (int i = 0; i < size - l; i++) {
+                for (int j = 0; j < size - l; j++) {
+                    x[id] = i;
+                    y[id] = j;
+                    z[id] = l;
+                    id++;
+                }
+            }
+        }
+
+        squareLocations = new int[SQUARES][];
+        squareTop = new int[SQUARES];
+        below = new int[LOCATIONS][];
+        int[] nAbove = new int[LOCATIONS];
+        int[] nSquaresOf = new int[LOCATIONS];
+        int square = 0;
+        for (int l = 0; l < size - 1; l++) {
+            for (int i = 0; i < size - l - 1; i++) {
+                for (int j = 0; j < size - l - 1; j++) {
+                    int[] locations = {
+                            getLocationId(i, j, l),
+                            getLocationId(i + 1, j, l),
+                            getLocationId(i, j + 1, l),
+                            getLocationId(i + 1, j + 1, l)
+                    };
+                    int top = getLocationId(i, j, l + 1);
+                    squareLocations[square] = locations;
+                    squareTop[square] = top;
+                    below[top] = locations;
+                    for (int location : locations) {
+                        nAbove[location]++;
+                        nSquaresOf[location]++;
+                    }
+                    square++;
+                }
+            }
+        }
+
+        above = new int[LOCATIONS][];
+        squaresOf = new int[LOCATIONS][];
+        for (int i = 0; i < LOCATIONS; i++) {
+            if (below[i] == null) below[i] = new int[0];
+            above[i] = new int[nAbove[i]];
+            squaresOf[i] = new int[nSquaresOf[i]];
+            nAbove[i] = 0;
+            nSquaresOf[i] = 0;
+        }
+        for (int s = 0; s < SQUARES; s++) {
+            for (int location : squareLocations[s]) {
+                above[location][nAbove[location]++] = squareTop[s];
+                squaresOf[location][nSquaresOf[location]++] = s;
+            }
+        }
+    }
+
+    static PylosTopology get(int size) {
+        return TOPOLOGIES.computeIfAbsent(size, PylosTopology::new);
+    }
+
+    /**
+     * returns the id of the location on level z (0=bottom), position x y
+     */
+    int getLocationId(int x, int y, int z) {
+        assert z >= 0 && z < SIZE : "z (=" + z + ") is out of bounds";
+        assert x >= 0 && x < (SIZE - z) : "x (=" + x + ") is out of bounds";
+        assert y >= 0 && y < (SIZE - z) : "y (=" + y + ") is out of bounds";
+        return layerOffset[z] + x * (SIZE - z) + y;
+    }
+
+}
@@ -0,0 +1,44 @@
+package be.kuleuven.pylos.game;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for the 64 bit Zobrist hashes of PylosBoard, PylosBitBoard and PylosGameSimulator.
+ * The keys are generated from a fixed seed, so hashes are stable between runs (e.g. for stored caches).
+ */
+final class PylosZobrist {
+
+    private static final long SEED = 0x5079_6C6F_735A_6F62L;
+
+    /* [location id][color], for boards up to PylosBoard.MAX_SIZE */
+    static final long[][] LOCATION;
+
+    /* [game state][color to move] */
+    static final long[][] STATE;
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int locations = 0;
+        for (int l = 1; l <= PylosBoard.MAX_SIZE; l++) {
+            locations += l * l;
+        }
+        LOCATION = new long[locations][2];
+        for (long[] keys : LOCATION) {
+            keys[0] = random.nextLong();
+            keys[1] = random.nextLong();
+        }
+        STATE = new long[PylosGameState.values().length][2];
+        for (long[] keys : STATE) {
+            keys[0] = random.nextLong();
+            keys[1] = random.nextLong();
+        }
+    }
+
+    private PylosZobrist() {
+    }
+
+    static long state(PylosGameState state, PylosPlayerColor color) {
+        return STATE[state.ordinal()][color.ordinal()];
+    }
+
+}
@@ -29,6 +29,25 @@ public abstract class PylosPlayer {
 
     public abstract void doRemoveOrPass(PylosGameIF game, PylosBoard board);
 
+    /**
+     * called by the game when the other player starts its turn (an add or move and the removes after it) on 'board'.
+     * A player can search during the turn of the other player (pondering) until otherTurnFinished(..) is called. The
+     * game changes 'board' during the turn, copy it (e.g. with snapshot()) before returning.
+     *
+     * @param board
+     */
+    public void otherTurnStarted(PylosBoard board) {
+    }
+
+    /**
+     * called by the game when the turn of the other player is over (also when the game is finished by it), 'board'
+     * holds the position after the turn. A search started by otherTurnStarted(..) should be stopped before returning.
+     *
+     * @param board
+     */
+    public void otherTurnFinished(PylosBoard board) {
+    }
+
     protected Random getRandom() {
         return RANDOM;
     }
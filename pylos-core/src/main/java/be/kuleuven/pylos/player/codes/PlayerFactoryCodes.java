@@ -35,6 +35,63 @@ public class PlayerFactoryCodes extends PylosPlayerFactory {
         tryToAddType("CODeS - Level 13", "PylosPlayerMiniMax", 13);
         tryToAddType("CODeS - Level 14", "PylosPlayerMiniMax", 14);
         tryToAddType("CODeS - Level 15", "PylosPlayerMiniMax", 15);
+        tryToAddType("CODeS - PVS Level 1", "PylosPlayerPVS", 1);
+        tryToAddType("CODeS - PVS Level 2", "PylosPlayerPVS", 2);
+        tryToAddType("CODeS - PVS Level 3", "PylosPlayerPVS", 3);
+        tryToAddType("CODeS - PVS Level 4", "PylosPlayerPVS", 4);
+        tryToAddType("CODeS - PVS Level 5", "PylosPlayerPVS", 5);
+        tryToAddType("CODeS - PVS Level 6", "PylosPlayerPVS", 6);
+        tryToAddType("CODeS - PVS Level 7", "PylosPlayerPVS", 7);
+        tryToAddType("CODeS - PVS Level 8", "PylosPlayerPVS", 8);
+        tryToAddType("CODeS - PVS Level 9", "PylosPlayerPVS", 9);
+        tryToAddType("CODeS - PVS Level 10", "PylosPlayerPVS", 10);
+        tryToAddType("CODeS - PVS Level 11", "PylosPlayerPVS", 11);
+        tryToAddType("CODeS - PVS Level 12", "PylosPlayerPVS", 12);
+        tryToAddType("CODeS - PVS Level 13", "PylosPlayerPVS", 13);
+        tryToAddType("CODeS - PVS Level 14", "PylosPlayerPVS", 14);
+        tryToAddType("CODeS - PVS Level 15", "PylosPlayerPVS", 15);
+        add(new PylosPlayerType("CODeS - PVS Level 12 SMP") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerPVS(12, Runtime.getRuntime().availableProcessors());
+            }
+        });
+        add(new PylosPlayerType("CODeS - YBWC Level 12") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerYBWC(12, Runtime.getRuntime().availableProcessors());
+            }
+        });
+        add(new PylosPlayerType("CODeS - MCTS 100 ms") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMCTS(100, 1);
+            }
+        });
+        add(new PylosPlayerType("CODeS - MCTS 1 s") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMCTS(1000, 1);
+            }
+        });
+        add(new PylosPlayerType("CODeS - MCTS 1 s SMP") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMCTS(1000, Runtime.getRuntime().availableProcessors());
+            }
+        });
+        add(new PylosPlayerType("CODeS - Level ID 100 ms") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMiniMax(40, 100, 0);
+            }
+        });
+        add(new PylosPlayerType("CODeS - Level ID 1 s") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMiniMax(40, 1000, 0);
+            }
+        });
     }
 
     private void tryToAddType(String name, String className) {
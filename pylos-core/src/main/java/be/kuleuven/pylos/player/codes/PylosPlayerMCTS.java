@@ -0,0 +1,310 @@
+package be.kuleuven.pylos.player.codes;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo tree search (UCT) with random playouts on PylosGameSimulator.
+ * <p>
+ * The tree is an arena of primitive arrays indexed by node: the children of a node are a contiguous block of nodes,
+ * the root is node 0. A node holds the move that leads to it, the color that played that move and the results of the
+ * playouts through it, counted in half points for that color (2 for a win, 1 for a playout cut off at
+ * MAX_PLAYOUT_LENGTH, 0 for a loss). Once the arena is full, leaves are no longer expanded.
+ * <p>
+ * Every worker thread searches on a board of its own: it selects a path from the root with UCB1, expands the leaf if
+ * it was visited before, plays random moves until the game ends and undoes all of them, so a playout doesn't
+ * allocate. The tree is shared: selection, expansion and backpropagation are done under one lock, the playouts (almost
+ * all of the work) outside of it. A worker adds a virtual loss to every node of its path until its result is in, so
+ * the other workers prefer other paths in the meantime.
+ * <p>
+ * The move with the most playouts is played. The number of playouts per second per thread is shouted after every move.
+ */
+public class PylosPlayerMCTS extends PylosPlayer {
+
+    private final double EXPLORATION = 1.4;        // the c of UCB1
+    private final int VIRTUAL_LOSS = 1;             // lost playouts added to a path while a worker is on it
+    private final int MAX_PLAYOUT_LENGTH = 256;     // moves, random play can take very long to complete a game
+    private final int ARENA_LOG2_NODES = 20;        // 2^20 nodes of 20 bytes, allocated at the first move
+    private final int NO_CHILDREN = -1;
+
+    private final long MOVE_TIME;                   // ms
+    private final long MOVE_PLAYOUTS;               // 0 = no limit
+    private final int THREADS;
+
+    /* the node arena */
+    private int[] move;
+    private byte[] color;           // ordinal of the color that played 'move'
+    private int[] firstChild;       // NO_CHILDREN if not expanded
+    private int[] nChildren;
+    private int[] visits;           // playouts through the node, plus the virtual losses of the workers on it
+    private int[] score;            // half points for 'color'
+    private int nNodes;
+    private final Object treeLock = new Object();
+
+    private Worker[] workers;
+    private ExecutorService workerPool;
+    private volatile boolean stop;
+    private long deadline;
+    private long playouts;          // guarded by treeLock
+
+    /**
+     * searches every move for 'moveTime' ms with 'threads' threads
+     *
+     * @param moveTime
+     * @param threads
+     */
+    public PylosPlayerMCTS(long moveTime, int threads) {
+        this(moveTime, 0, threads);
+    }
+
+    /**
+     * searches every move for 'moveTime' ms or 'movePlayouts' playouts (0 for no limit), whichever comes first
+     *
+     * @param moveTime
+     * @param movePlayouts
+     * @param threads
+     */
+    public PylosPlayerMCTS(long moveTime, long movePlayouts, int threads) {
+        if (moveTime <= 0 && movePlayouts <= 0) {
+            throw new IllegalArgumentException("A time or playout budget is needed");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads should be at least 1 (is " + threads + ")");
+        }
+        MOVE_TIME = moveTime;
+        MOVE_PLAYOUTS = movePlayouts;
+        THREADS = threads;
+    }
+
+    @Override
+    public void doMove(PylosGameIF game, PylosBoard board) {
+        search(game, board);
+    }
+
+    @Override
+    public void doRemove(PylosGameIF game, PylosBoard board) {
+        search(game, board);
+    }
+
+    @Override
+    public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
+        search(game, board);
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    private void search(PylosGameIF game, PylosBoard board) {
+        if (move == null) {
+            int capacity = 1 << ARENA_LOG2_NODES;
+            move = new int[capacity];
+            color = new byte[capacity];
+            firstChild = new int[capacity];
+            nChildren = new int[capacity];
+            visits = new int[capacity];
+            score = new int[capacity];
+        }
+        if (workers == null || workers[0].moves.length < board.getMaxMoves()) {
+            workers = new Worker[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                workers[i] = new Worker(board.getMaxMoves());
+            }
+        }
+
+        /* the root, the node of the position to play */
+        nNodes = 1;
+        move[0] = PylosMove.NONE;
+        color[0] = (byte) PLAYER_COLOR.other().ordinal();
+        firstChild[0] = NO_CHILDREN;
+        visits[0] = 0;
+        score[0] = 0;
+        playouts = 0;
+
+        /* the root is expanded before the first playout, so even a single playout leaves a move to play */
+        PylosGameSimulator rootSimulator = new PylosGameSimulator(game.getState(), PLAYER_COLOR, board);
+        int[] rootMoves = workers[0].moves;
+        expand(0, rootMoves, rootSimulator.generateMoves(rootMoves), PLAYER_COLOR);
+
+        stop = false;
+        final long start = System.nanoTime();
+        deadline = MOVE_TIME > 0 ? start + MOVE_TIME * 1_000_000 : Long.MAX_VALUE;
+
+        PylosBoardSnapshot snapshot = board.snapshot();
+        Future<?>[] helpers = new Future<?>[THREADS - 1];
+        if (THREADS > 1) {
+            if (workerPool == null) {
+                /* idle threads end after a minute, a player that is no longer used doesn't keep them */
+                workerPool = Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "MCTS worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            for (int i = 1; i < THREADS; i++) {
+                Worker worker = workers[i];
+                worker.init(snapshot, game.getState(), new Random(getRandom().nextLong()));
+                helpers[i - 1] = workerPool.submit(worker::run);
+            }
+        }
+        workers[0].init(snapshot, game.getState(), new Random(getRandom().nextLong()));
+        workers[0].run();
+        for (int i = 1; i < THREADS; i++) {
+            try {
+                helpers[i - 1].get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("A worker thread of the search failed", e);
+            }
+        }
+        final long time = System.nanoTime() - start;
+
+        int best = firstChild[0];
+        for (int child = firstChild[0]; child < firstChild[0] + nChildren[0]; child++) {
+            if (visits[child] > visits[best]) best = child;
+        }
+        getObserver().shout("Playouts: " + playouts + " (" + (long) (playouts * 1e9 / time / THREADS) + " per second per thread)");
+        getObserver().shout(String.format("Win chance: %.0f%%", 50.0 * score[best] / visits[best]));
+        PylosMove.play(move[best], game, board, PLAYER_COLOR);
+    }
+
+    /**
+     * adds the 'n' children of 'node' for 'moves' of 'color', the arena should have room for them
+     */
+    private void expand(int node, int[] moves, int n, PylosPlayerColor color) {
+        final int first = nNodes;
+        for (int i = 0; i < n; i++) {
+            int c = first + i;
+            move[c] = moves[i];
+            this.color[c] = (byte) color.ordinal();
+            firstChild[c] = NO_CHILDREN;
+            nChildren[c] = 0;
+            visits[c] = 0;
+            score[c] = 0;
+        }
+        nNodes += n;
+        nChildren[node] = n;
+        firstChild[node] = first;
+    }
+
+    /**
+     * the state of one worker thread
+     */
+    private final class Worker {
+
+        private final int[] moves;
+        private final int[] path;           // the nodes from the root to the leaf of the current playout
+        private PylosBoard board;
+        private PylosGameSimulator simulator;
+        private Random random;
+
+        private Worker(int maxMoves) {
+            moves = new int[maxMoves];
+            path = new int[MAX_PLAYOUT_LENGTH + 1];
+        }
+
+        private void init(PylosBoardSnapshot snapshot, PylosGameState state, Random random) {
+            if (board == null || board.SIZE != snapshot.SIZE) {
+                board = PylosBoard.fromSnapshot(snapshot);
+            } else {
+                board.restore(snapshot);
+            }
+            simulator = new PylosGameSimulator(state, PLAYER_COLOR, board);
+            this.random = random;
+        }
+
+        private void run() {
+            while (!stop) {
+                playout();
+            }
+        }
+
+        private void playout() {
+            /* selection: from the root to a leaf, on the tree and on the board */
+            int length = 0;
+            int node = 0;
+            path[length++] = node;
+            synchronized (treeLock) {
+                visits[node] += VIRTUAL_LOSS;
+                while (firstChild[node] != NO_CHILDREN && nChildren[node] > 0 && length < path.length) {
+                    node = select(node);
+                    visits[node] += VIRTUAL_LOSS;
+                    path[length++] = node;
+                }
+            }
+            for (int i = 1; i < length; i++) {
+                simulator.apply(move[path[i]]);
+            }
+
+            /* expansion: a leaf that was visited before gets its children, the playout goes on from one of them */
+            if (simulator.getState() != PylosGameState.COMPLETED && length < path.length) {
+                int n = simulator.generateMoves(moves);
+                int child = NO_CHILDREN;
+                synchronized (treeLock) {
+                    if (visits[node] > VIRTUAL_LOSS && firstChild[node] == NO_CHILDREN && nNodes + n <= move.length) {
+                        expand(node, moves, n, simulator.getColor());
+                    }
+                    if (firstChild[node] != NO_CHILDREN) {
+                        child = firstChild[node] + random.nextInt(nChildren[node]);
+                        visits[child] += VIRTUAL_LOSS;
+                        path[length++] = child;
+                    }
+                }
+                if (child != NO_CHILDREN) {
+                    simulator.apply(move[child]);
+                }
+            }
+
+            /* simulation: random moves until the end of the game */
+            final int undoStart = simulator.getUndoSize();
+            while (simulator.getState() != PylosGameState.COMPLETED && simulator.getUndoSize() - undoStart < MAX_PLAYOUT_LENGTH) {
+                int n = simulator.generateMoves(moves);
+                simulator.apply(moves[random.nextInt(n)]);
+            }
+            final PylosPlayerColor winner = simulator.getState() == PylosGameState.COMPLETED ? simulator.getWinner() : null;
+            while (simulator.getUndoSize() > 0) {
+                simulator.undo();
+            }
+
+            /* backpropagation: the virtual losses are replaced by the result */
+            synchronized (treeLock) {
+                for (int i = 0; i < length; i++) {
+                    int p = path[i];
+                    visits[p] += 1 - VIRTUAL_LOSS;
+                    if (winner == null) {
+                        score[p] += 1;
+                    } else if (winner.ordinal() == color[p]) {
+                        score[p] += 2;
+                    }
+                }
+                playouts++;
+                if ((MOVE_PLAYOUTS > 0 && playouts >= MOVE_PLAYOUTS) || System.nanoTime() > deadline) {
+                    stop = true;
+                }
+            }
+        }
+
+        /**
+         * returns the child of 'parent' with the highest UCB1 value, an unvisited child first
+         */
+        private int select(int parent) {
+            final int first = firstChild[parent];
+            final int last = first + nChildren[parent];
+            final double logParent = Math.log(visits[parent]);
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < last; child++) {
+                if (visits[child] == 0) return child;
+                double value = score[child] / (2.0 * visits[child]) + EXPLORATION * Math.sqrt(logParent / visits[child]);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+    }
+}
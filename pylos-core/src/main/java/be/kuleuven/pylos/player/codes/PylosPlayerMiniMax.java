@@ -2,28 +2,22 @@ package be.kuleuven.pylos.player.codes;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+import be.kuleuven.pylos.search.PylosMoveOrdering;
+import be.kuleuven.pylos.search.PylosOpeningBook;
+import be.kuleuven.pylos.search.PylosTablebase;
+import be.kuleuven.pylos.search.PylosTranspositionTable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Random;
 
 /**
  * Created by Jan on 20/02/2015.
  */
 public class PylosPlayerMiniMax extends PylosPlayer {
 
-    /* four highest significant bits are used as follows:
-     * ...x	0=Light, 1=Dark
-     * ..x. MOVE
-     * .x..	REMOVE_FIRST
-     * x...	REMOVE_SECOND
-     * 000.	COMPLETED */
-    private static final long COLOR_FLAG = 1L << 60;
-    private static final long MOVE_FLAG = 1L << 61;
-    private static final long REMOVE_FIRST_FLAG = 1L << 62;
-    private static final long REMOVE_SECOND_FLAG = 1L << 63;
-
     private final double WIN_THRESHOLD_THIS = 1000;
     private final double WIN_THRESHOLD_OTHER = -1000;
     private final double WIN_THIS = 2000;        // decremented with branch depth (winning earlier is better)
@@ -31,6 +25,11 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     private final double INITIAL_THIS = -9999;
     private final double INITIAL_OTHER = 9999;
 
+    private final int BUDGET_CHECK_INTERVAL = 1024;    // nodes between two checks of the time budget
+    private final int TABLE_LOG2_ENTRIES = 20;          // 2^20 entries of 16 bytes, allocated at the first move
+    private final int QUIESCENCE_MAX_DEPTH = 8;         // steps searched past MAX_BRANCH_DEPTH
+    private final long QUIESCENCE_NODES = 100_000;      // default of maxQuiescenceNodes
+
     private final boolean PRINT_MINIMAX_RESULT = false;
     private final boolean PRUNE_TEST = false;
     private final boolean VAR_BRANCH_DEPTH;
@@ -39,6 +38,10 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     private final boolean SAVE_STATES = true;
     private boolean PRUNE_ENABLE = true;
     private int MAX_BRANCH_DEPTH = 4;                    // set to 5 for human, set to 3 for best fit, 10 is possible
+    private final boolean ITERATIVE_DEEPENING;
+    private final int ID_MAX_BRANCH_DEPTH;          // iterative deepening: deepest iteration
+    private final long ID_MOVE_TIME;                // iterative deepening: wall-clock budget per move in ms, 0 = none
+    private final long ID_MOVE_NODES;               // iterative deepening: node budget per move, 0 = none
     private PylosGameSimulator simulator;
     private PylosBoard board;
     private int branchDepth = 0;
@@ -48,22 +51,102 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     private PylosSphere bestSphere;
     private PylosLocation bestLocation;
 
-    private HashMap<Long, Double> minimaxResults;
+    private PylosTranspositionTable table;      // shared by all moves of a game
+    private int branchBestMove;                 // best move of the last branchDo..(), stored in the table
+    private int branchTableMove;                // best move in the table for the next branchDo..(), tried first
+    private PylosMoveOrdering ordering;
+    private int[][] moveBuffers;        // one buffer of generated moves per branch depth, quiescence included
+    private long quiescenceNodes;
+    private long maxQuiescenceNodes = QUIESCENCE_NODES;     // per move, afterwards the horizon is static, 0 = none
+    private PylosTablebase tablebase;   // null if none
+    private PylosOpeningBook book;      // null if none
+
+    /* iterative deepening */
+    private int[] rootMoves;
+    private double[] rootResults;
+    private long nodes;
+    private long deadline;
+    private boolean mayAbort;           // false until the first iteration completed, so there is always a move
+    private boolean aborted;            // the budget ran out, the current iteration is unwound and discarded
+    private boolean horizonReached;     // the current iteration cut off a line at MAX_BRANCH_DEPTH
 
     public PylosPlayerMiniMax() {
         VAR_BRANCH_DEPTH = true;
         VAR_BRANCH_START_DEPTH = 10;
         MAX_BRANCH_DEPTH = VAR_BRANCH_START_DEPTH;
+        ITERATIVE_DEEPENING = false;
+        ID_MAX_BRANCH_DEPTH = 0;
+        ID_MOVE_TIME = 0;
+        ID_MOVE_NODES = 0;
     }
 
     public PylosPlayerMiniMax(Integer branchDepth) {
         VAR_BRANCH_DEPTH = false;
         VAR_BRANCH_START_DEPTH = Integer.MAX_VALUE;    // not used
         MAX_BRANCH_DEPTH = branchDepth;
+        ITERATIVE_DEEPENING = false;
+        ID_MAX_BRANCH_DEPTH = 0;
+        ID_MOVE_TIME = 0;
+        ID_MOVE_NODES = 0;
+    }
+
+    /**
+     * iterative deepening: every move is searched with depth 1, 2, .. 'maxBranchDepth' until 'moveTime' (ms) or
+     * 'moveNodes' (0 for no limit) is used up, the best move of the deepest completed iteration is played.
+     * Each iteration tries the root moves in the order of the results of the previous one.
+     *
+     * @param maxBranchDepth
+     * @param moveTime
+     * @param moveNodes
+     */
+    public PylosPlayerMiniMax(int maxBranchDepth, long moveTime, long moveNodes) {
+        VAR_BRANCH_DEPTH = false;
+        VAR_BRANCH_START_DEPTH = Integer.MAX_VALUE;    // not used
+        MAX_BRANCH_DEPTH = maxBranchDepth;
+        ITERATIVE_DEEPENING = true;
+        ID_MAX_BRANCH_DEPTH = maxBranchDepth;
+        ID_MOVE_TIME = moveTime;
+        ID_MOVE_NODES = moveNodes;
+    }
+
+    /**
+     * lets the search stop at the positions of 'tablebase' (null for none), their result is known
+     *
+     * @param tablebase
+     */
+    public void setTablebase(PylosTablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * plays the move of 'book' (null for none) without a search in the positions of the book
+     *
+     * @param book
+     */
+    public void setOpeningBook(PylosOpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * lets the search go on past its depth with square completions and their removes, for at most 'nodes' nodes per
+     * move (0 for no quiescence search)
+     *
+     * @param nodes
+     */
+    public void setQuiescenceNodes(long nodes) {
+        if (nodes < 0) {
+            throw new IllegalArgumentException("nodes should not be negative (is " + nodes + ")");
+        }
+        this.maxQuiescenceNodes = nodes;
     }
 
     @Override
     public void doMove(PylosGameIF game, PylosBoard board) {
+        if (book != null && book.play(game, board, PLAYER_COLOR)) return;
+        if (ITERATIVE_DEEPENING) {
+            doIterativeDeepening(game, board);
+            return;
+        }
 
         if (PRUNE_TEST) PRUNE_ENABLE = false;
         init(game.getState(), board);
@@ -96,7 +179,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                         PylosLocation prevLocation = sphere.getLocation();
                         getObserver().checkingMoveSphere(sphere, location);
                         simulator.moveSphere(sphere, location);
-                        double minimax = branchStep(bestMinimax, bestMinimax);
+                        double minimax = branchStep(bestMinimax, INITIAL_OTHER);
                         eval(minimax, sphere, location);
                         simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, this.PLAYER_COLOR);
                     }
@@ -110,7 +193,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
             if (location.isUsable()) {
                 getObserver().checkingMoveSphere(myReserveSphere, location);
                 simulator.moveSphere(myReserveSphere, location);
-                double minimax = branchStep(bestMinimax, bestMinimax);
+                double minimax = branchStep(bestMinimax, INITIAL_OTHER);
                 eval(minimax, myReserveSphere, location);
                 simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, this.PLAYER_COLOR);
             }
@@ -135,7 +218,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                         if (sphere.canMoveTo(location)) {
                             PylosLocation prevLocation = sphere.getLocation();
                             simulator.moveSphere(sphere, location);
-                            double minimax = branchStep(bestMinimax, bestMinimax);
+                            double minimax = branchStep(bestMinimax, INITIAL_OTHER);
                             eval(minimax, sphere, location);
                             simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, this.PLAYER_COLOR);
                         }
@@ -148,7 +231,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 PylosLocation location = locations[locationId];
                 if (location.isUsable()) {
                     simulator.moveSphere(myReserveSphere, location);
-                    double minimax = branchStep(bestMinimax, bestMinimax);
+                    double minimax = branchStep(bestMinimax, INITIAL_OTHER);
                     eval(minimax, myReserveSphere, location);
                     simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, this.PLAYER_COLOR);
                 }
@@ -171,6 +254,10 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 
     @Override
     public void doRemove(PylosGameIF game, PylosBoard board) {
+        if (ITERATIVE_DEEPENING) {
+            doIterativeDeepening(game, board);
+            return;
+        }
         init(game.getState(), board);
 
         for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
@@ -178,7 +265,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 PylosLocation prevLocation = sphere.getLocation();
                 getObserver().checkingRemoveSphere(sphere);
                 simulator.removeSphere(sphere);
-                double minimax = branchStep(bestMinimax, bestMinimax);
+                double minimax = branchStep(bestMinimax, INITIAL_OTHER);
                 eval(minimax, sphere, null);
                 simulator.undoRemoveFirstSphere(sphere, prevLocation, PylosGameState.REMOVE_FIRST, this.PLAYER_COLOR);
             }
@@ -192,6 +279,10 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 
     @Override
     public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
+        if (ITERATIVE_DEEPENING) {
+            doIterativeDeepening(game, board);
+            return;
+        }
         init(game.getState(), board);
 
         for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
@@ -199,7 +290,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 PylosLocation prevLocation = sphere.getLocation();
                 getObserver().checkingRemoveSphere(sphere);
                 simulator.removeSphere(sphere);
-                double minimax = branchStep(bestMinimax, bestMinimax);
+                double minimax = branchStep(bestMinimax, INITIAL_OTHER);
                 eval(minimax, sphere, null);
                 simulator.undoRemoveSecondSphere(sphere, prevLocation, PylosGameState.REMOVE_SECOND, this.PLAYER_COLOR);
             }
@@ -207,7 +298,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 
         getObserver().checkingPass();
         simulator.pass();
-        double chance = branchStep(bestMinimax, bestMinimax);
+        double chance = branchStep(bestMinimax, INITIAL_OTHER);
         eval(chance, null, null);
         simulator.undoPass(PylosGameState.REMOVE_SECOND, this.PLAYER_COLOR);
 
@@ -222,6 +313,110 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         }
     }
 
+    private void doIterativeDeepening(PylosGameIF game, PylosBoard board) {
+        MAX_BRANCH_DEPTH = ID_MAX_BRANCH_DEPTH;
+        init(game.getState(), board);
+        if (rootMoves == null || rootMoves.length < board.getMaxMoves()) {
+            rootMoves = new int[board.getMaxMoves()];
+            rootResults = new double[board.getMaxMoves()];
+        }
+
+        final long start = System.nanoTime();
+        deadline = ID_MOVE_TIME > 0 ? start + ID_MOVE_TIME * 1_000_000 : Long.MAX_VALUE;
+        nodes = 0;
+        mayAbort = false;
+
+        final int nRootMoves = simulator.generateMoves(rootMoves);
+        if (USE_RANDOM) {
+            for (int i = nRootMoves - 1; i > 0; i--) {
+                int j = getRandom().nextInt(i + 1);
+                int tmp = rootMoves[i];
+                rootMoves[i] = rootMoves[j];
+                rootMoves[j] = tmp;
+            }
+        }
+
+        int bestMove = rootMoves[0];
+        double bestResult = INITIAL_THIS;
+        int completedDepth = 0;
+        for (int depth = 1; depth <= ID_MAX_BRANCH_DEPTH; depth++) {
+            MAX_BRANCH_DEPTH = depth;
+            bestMinimax = INITIAL_THIS;
+            aborted = false;
+            horizonReached = false;
+
+            for (int i = 0; i < nRootMoves && !aborted; i++) {
+                branchDepth = 0;
+                simulator.apply(rootMoves[i]);
+                double minimax = branchStep(bestMinimax, INITIAL_OTHER);
+                simulator.undo();
+                rootResults[i] = minimax;
+                if (!aborted && minimax > bestMinimax) bestMinimax = minimax;
+            }
+            if (aborted) break;
+
+            /* best first, the next iteration prunes more with a good first move */
+            sortRootMoves(nRootMoves);
+            bestMove = rootMoves[0];
+            bestResult = rootResults[0];
+            completedDepth = depth;
+            mayAbort = true;
+
+            /* a win or loss is known, or no line reached the horizon: deeper iterations can't change the result */
+            if (bestResult > WIN_THRESHOLD_THIS || bestResult < WIN_THRESHOLD_OTHER || !horizonReached) break;
+            /* the next iteration takes longer than all previous ones together, don't start what can't finish */
+            if (ID_MOVE_TIME > 0 && (System.nanoTime() - start) * 2 > ID_MOVE_TIME * 1_000_000) break;
+        }
+
+        bestMinimax = bestResult;
+        getObserver().shout("Searched depth: " + completedDepth + " (" + nodes + " nodes)");
+        shoutIfWinnerIsKnown();
+        if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax + " depth " + completedDepth);
+        PylosMove.play(bestMove, game, board, PLAYER_COLOR);
+    }
+
+    /**
+     * stable insertion sort of the root moves on their result of the last iteration, best first
+     */
+    private void sortRootMoves(int nRootMoves) {
+        for (int i = 1; i < nRootMoves; i++) {
+            int move = rootMoves[i];
+            double result = rootResults[i];
+            int j = i - 1;
+            while (j >= 0 && rootResults[j] < result) {
+                rootMoves[j + 1] = rootMoves[j];
+                rootResults[j + 1] = rootResults[j];
+                j--;
+            }
+            rootMoves[j + 1] = move;
+            rootResults[j + 1] = result;
+        }
+    }
+
+    /**
+     * returns true if the budget of the current move is used up, checked every BUDGET_CHECK_INTERVAL nodes
+     */
+    private boolean outOfBudget() {
+        if (aborted) return true;
+        nodes++;
+        if (!mayAbort) return false;
+        if ((ID_MOVE_NODES > 0 && nodes > ID_MOVE_NODES)
+                || (nodes % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+            aborted = true;
+        }
+        return aborted;
+    }
+
+    /**
+     * a new game starts: the table is cleared, its results may be of the other color
+     */
+    @Override
+    public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
+        super.init(playerColor, other, observer, random);
+        if (table != null) table.clear();
+        if (ordering != null) ordering.clear();
+    }
+
     private void init(PylosGameState state, PylosBoard board) {
         this.simulator = new PylosGameSimulator(state, PLAYER_COLOR, board);
         this.board = board;
@@ -229,8 +424,15 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         this.bestSphere = null;
         this.bestLocation = null;
         this.branchDepth = 0;
-        this.minimaxResults = new HashMap<>();
+        this.quiescenceNodes = 0;
+        if (table == null) table = new PylosTranspositionTable(TABLE_LOG2_ENTRIES);
+        table.newSearch();
         setBranchDepth();
+        if (moveBuffers == null || moveBuffers.length <= MAX_BRANCH_DEPTH + QUIESCENCE_MAX_DEPTH || moveBuffers[0].length < board.getMaxMoves()) {
+            moveBuffers = new int[MAX_BRANCH_DEPTH + QUIESCENCE_MAX_DEPTH + 1][board.getMaxMoves()];
+            ordering = new PylosMoveOrdering(MAX_BRANCH_DEPTH + 1, board.getMaxMoves());
+        }
+        ordering.newSearch();
     }
 
     private void setBranchDepth() {
@@ -271,96 +473,94 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         }
     }
 
-    private double branchDoMove(double siblingMinimax) {
+    private double branchDoMove(double alpha, double beta) {
 
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
+        int bestMove = PylosMove.NONE;
         boolean prune = false;
 
-        PylosSphere myReserveSphere = board.getReserve(currentColor);
-        PylosSphere[] mySpheres = board.getSpheres(currentColor);
-        PylosLocation[] locations = board.getLocations();
-
-        /* try to move a sphere to higher level */
-        for (int sphereId = 0; sphereId < mySpheres.length && !(PRUNE_ENABLE && prune); sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (!sphere.isReserve()) {
-                for (int locationId = 0; locationId < locations.length && !(PRUNE_ENABLE && prune); locationId++) {
-                    PylosLocation location = locations[locationId];
-                    if (sphere.canMoveTo(location)) {
-                        // check chance
-                        PylosLocation prevLocation = sphere.getLocation();
-                        simulator.moveSphere(sphere, location);
-                        double result = branchStep(minimax, siblingMinimax);
-                        if (currentColor == PLAYER_COLOR) {
-                            if (result > minimax) minimax = result;
-                            if (minimax >= siblingMinimax) prune = true;
-                        } else {
-                            if (result < minimax) minimax = result;
-                            if (minimax <= siblingMinimax) prune = true;
-                        }
-                        simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, currentColor);
-                        assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
-                    }
+        /* try to move a sphere to higher level, then try to add a reserve sphere */
+        final int[] moves = moveBuffers[branchDepth];
+        final int nMoves = simulator.generateMoves(moves);
+        ordering.order(moves, nMoves, branchTableMove, branchDepth, currentColor.ordinal());
+        for (int moveId = 0; moveId < nMoves && !(PRUNE_ENABLE && prune) && !aborted; moveId++) {
+            // check chance
+            simulator.apply(moves[moveId]);
+            if (currentColor == PLAYER_COLOR) {
+                double result = branchStep(Math.max(alpha, minimax), beta);
+                if (result > minimax) {
+                    minimax = result;
+                    bestMove = moves[moveId];
                 }
-            }
-        }
-
-        /* try to add a reserve sphere */
-        for (int locationId = 0; locationId < locations.length && !(PRUNE_ENABLE && prune); locationId++) {
-            PylosLocation location = locations[locationId];
-            if (location.isUsable()) {
-                // check chance
-                simulator.moveSphere(myReserveSphere, location);
-                double result = branchStep(minimax, siblingMinimax);
-                if (currentColor == PLAYER_COLOR) {
-                    if (result > minimax) minimax = result;
-                    if (minimax >= siblingMinimax) prune = true;
-                } else {
-                    if (result < minimax) minimax = result;
-                    if (minimax <= siblingMinimax) prune = true;
+                if (minimax >= beta) {
+                    prune = true;
+                    ordering.cutoff(moves[moveId], branchDepth, MAX_BRANCH_DEPTH - branchDepth + 1, currentColor.ordinal());
+                }
+            } else {
+                double result = branchStep(alpha, Math.min(beta, minimax));
+                if (result < minimax) {
+                    minimax = result;
+                    bestMove = moves[moveId];
+                }
+                if (minimax <= alpha) {
+                    prune = true;
+                    ordering.cutoff(moves[moveId], branchDepth, MAX_BRANCH_DEPTH - branchDepth + 1, currentColor.ordinal());
                 }
-                simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, currentColor);
-                assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
             }
+            simulator.undo();
+            assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
         }
 
-        assert !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
-        assert !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
+        assert aborted || !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
+        assert aborted || !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
 
+        branchBestMove = bestMove;
         return minimax;
     }
 
-    private double branchDoRemove(double parentSiblingMinimax) {
+    private double branchDoRemove(double alpha, double beta) {
 
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
+        int bestMove = PylosMove.NONE;
         boolean prune = false;
 
-        PylosSphere[] mySpheres = board.getSpheres(currentColor);
-
         /* remove a sphere */
-        for (int sphereId = 0; sphereId < mySpheres.length && !(PRUNE_ENABLE && prune); sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (sphere.canRemove()) {
-                PylosLocation prevLocation = sphere.getLocation();
-                simulator.removeSphere(sphere);
-                double result = branchStep(parentSiblingMinimax, parentSiblingMinimax);
-                if (currentColor == PLAYER_COLOR) {
-                    if (result > minimax) minimax = result;
-                    if (minimax >= parentSiblingMinimax) prune = true;
-                } else {
-                    if (result < minimax) minimax = result;
-                    if (minimax <= parentSiblingMinimax) prune = true;
+        final int[] moves = moveBuffers[branchDepth];
+        final int nMoves = simulator.generateMoves(moves);
+        ordering.order(moves, nMoves, branchTableMove, branchDepth, currentColor.ordinal());
+        for (int moveId = 0; moveId < nMoves && !(PRUNE_ENABLE && prune) && !aborted; moveId++) {
+            simulator.apply(moves[moveId]);
+            if (currentColor == PLAYER_COLOR) {
+                double result = branchStep(Math.max(alpha, minimax), beta);
+                if (result > minimax) {
+                    minimax = result;
+                    bestMove = moves[moveId];
+                }
+                if (minimax >= beta) {
+                    prune = true;
+                    ordering.cutoff(moves[moveId], branchDepth, MAX_BRANCH_DEPTH - branchDepth + 1, currentColor.ordinal());
+                }
+            } else {
+                double result = branchStep(alpha, Math.min(beta, minimax));
+                if (result < minimax) {
+                    minimax = result;
+                    bestMove = moves[moveId];
+                }
+                if (minimax <= alpha) {
+                    prune = true;
+                    ordering.cutoff(moves[moveId], branchDepth, MAX_BRANCH_DEPTH - branchDepth + 1, currentColor.ordinal());
                 }
-                simulator.undoRemoveFirstSphere(sphere, prevLocation, PylosGameState.REMOVE_FIRST, currentColor);
-                assert simulator.getState() == PylosGameState.REMOVE_FIRST && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_FIRST + " " + currentColor;
             }
+            simulator.undo();
+            assert simulator.getState() == PylosGameState.REMOVE_FIRST && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_FIRST + " " + currentColor;
         }
 
-        assert !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
-        assert !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
+        assert aborted || !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
+        assert aborted || !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
 
+        branchBestMove = bestMove;
         return minimax;
     }
 
@@ -388,105 +588,130 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 //		return branchStep(siblingMinimax, 0);
 //	}
 
-    private double branchDoRemoveOrPass(double parentSiblingMinimax) {
+    private double branchDoRemoveOrPass(double alpha, double beta) {
 
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
+        int bestMove = PylosMove.NONE;
         boolean prune = false;
 
-        PylosSphere[] mySpheres = board.getSpheres(currentColor);
-
-        /* remove a sphere */
-        for (int sphereId = 0; sphereId < mySpheres.length && !(PRUNE_ENABLE && prune); sphereId++) {
-            PylosSphere sphere = mySpheres[sphereId];
-            if (sphere.canRemove()) {
-                PylosLocation prevLocation = sphere.getLocation();
-                simulator.removeSphere(sphere);
-                double result = branchStep(minimax, minimax);
-                if (currentColor == PLAYER_COLOR) {
-                    if (result > minimax) minimax = result;
-                    if (minimax >= parentSiblingMinimax) prune = true;
-                } else {
-                    if (result < minimax) minimax = result;
-                    if (minimax <= parentSiblingMinimax) prune = true;
+        /* remove a sphere, the pass is generated last */
+        final int[] moves = moveBuffers[branchDepth];
+        final int nMoves = simulator.generateMoves(moves);
+        ordering.order(moves, nMoves - 1, branchTableMove, branchDepth, currentColor.ordinal());
+        for (int moveId = 0; moveId < nMoves - 1 && !(PRUNE_ENABLE && prune) && !aborted; moveId++) {
+            simulator.apply(moves[moveId]);
+            if (currentColor == PLAYER_COLOR) {
+                double result = branchStep(Math.max(alpha, minimax), beta);
+                if (result > minimax) {
+                    minimax = result;
+                    bestMove = moves[moveId];
+                }
+                if (minimax >= beta) {
+                    prune = true;
+                    ordering.cutoff(moves[moveId], branchDepth, MAX_BRANCH_DEPTH - branchDepth + 1, currentColor.ordinal());
+                }
+            } else {
+                double result = branchStep(alpha, Math.min(beta, minimax));
+                if (result < minimax) {
+                    minimax = result;
+                    bestMove = moves[moveId];
+                }
+                if (minimax <= alpha) {
+                    prune = true;
+                    ordering.cutoff(moves[moveId], branchDepth, MAX_BRANCH_DEPTH - branchDepth + 1, currentColor.ordinal());
                 }
-                simulator.undoRemoveSecondSphere(sphere, prevLocation, PylosGameState.REMOVE_SECOND, currentColor);
-                assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
             }
+            simulator.undo();
+            assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
         }
 
         /* pass */
-        simulator.pass();
+        assert PylosMove.getType(moves[nMoves - 1]) == PylosMove.PASS;
+        simulator.apply(moves[nMoves - 1]);
         double result = board.getReservesSize(this.PLAYER_COLOR.other()) - board.getReservesSize(this.PLAYER_COLOR);
         if (currentColor == PLAYER_COLOR) {
-            if (result > minimax) minimax = result;
+            if (result > minimax) {
+                minimax = result;
+                bestMove = moves[nMoves - 1];
+            }
         } else {
-            if (result < minimax) minimax = result;
+            if (result < minimax) {
+                minimax = result;
+                bestMove = moves[nMoves - 1];
+            }
         }
-        simulator.undoPass(PylosGameState.REMOVE_SECOND, currentColor);
+        simulator.undo();
         assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
 
-        assert !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
-        assert !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
+        assert aborted || !(currentColor == PLAYER_COLOR && minimax == INITIAL_THIS);
+        assert aborted || !(currentColor != PLAYER_COLOR && minimax == INITIAL_OTHER);
 
+        branchBestMove = bestMove;
         return minimax;
     }
 
-    private long addGameState(long boardState, PylosGameState gameState, PylosPlayerColor color) {
+    /**
+     * returns the minimax value of the simulated position, exact if it lies in ]alpha, beta[, otherwise a bound
+     * (an upper bound if <= alpha, a lower bound if >= beta)
+     */
+    private double branchStep(double alpha, double beta) {
 
-        if (color == PylosPlayerColor.DARK) {
-            boardState |= COLOR_FLAG;
-        }
-        switch (gameState) {
-            case MOVE:
-                boardState |= MOVE_FLAG;
-                break;
-            case REMOVE_FIRST:
-                boardState |= REMOVE_FIRST_FLAG;
-                break;
-            case REMOVE_SECOND:
-                boardState |= REMOVE_SECOND_FLAG;
-                break;
-            case COMPLETED:
-                break;
-            default:
-                throw new IllegalStateException("Game state is: " + gameState);
+        if (ITERATIVE_DEEPENING && outOfBudget()) {
+            return 0;
         }
 
-        return boardState;
-    }
-
-    private double branchStep(double siblingMinimax, double parentSiblingMinimax) {
+        if (tablebase != null && simulator.getState() == PylosGameState.MOVE) {
+            int entry = tablebase.probe(board, simulator.getColor());
+            if (entry != PylosTablebase.UNKNOWN) {
+                return fromTablebase(entry, simulator.getColor());
+            }
+        }
 
         if (branchDepth == MAX_BRANCH_DEPTH) {
+            horizonReached = true;
+            if (maxQuiescenceNodes > 0) return quiesce(alpha, beta);
             return board.getReservesSize(PLAYER_COLOR) - board.getReservesSize(PLAYER_COLOR.other());
         }
 
         final PylosPlayerColor color = simulator.getColor();
         final PylosGameState state = simulator.getState();
-        final Long minimaxBranchState = addGameState(board.toLong(), state, color);
+        final long minimaxBranchState = simulator.getHash();
+        final int ply = branchDepth;
+        final int depth = Math.min(MAX_BRANCH_DEPTH - branchDepth, PylosTranspositionTable.MAX_DEPTH);
 
-        Double result;
+        branchTableMove = PylosMove.NONE;
         if (SAVE_STATES) {
-            result = minimaxResults.get(minimaxBranchState);
-            if (result != null) {
-                return result;
+            long entry = table.probe(minimaxBranchState);
+            if (entry != PylosTranspositionTable.MISS && PylosTranspositionTable.getDepth(entry) >= depth) {
+                double value = fromTable(PylosTranspositionTable.getValue(entry), ply);
+                int bound = PylosTranspositionTable.getBound(entry);
+                if (bound == PylosTranspositionTable.EXACT
+                        || (bound == PylosTranspositionTable.LOWER && value >= beta)
+                        || (bound == PylosTranspositionTable.UPPER && value <= alpha)) {
+                    /* the stored search may have been cut off at its horizon, iterative deepening should go on */
+                    horizonReached = true;
+                    return value;
+                }
             }
+            if (entry != PylosTranspositionTable.MISS) branchTableMove = PylosTranspositionTable.getMove(entry);
         }
 
+        double result;
+        branchBestMove = PylosMove.NONE;
         branchDepth++;
 
         switch (state) {
             case MOVE:
-                result = branchDoMove(siblingMinimax);
+                result = branchDoMove(alpha, beta);
                 assert simulator.getColor() == color && simulator.getState() == state;
                 break;
             case REMOVE_FIRST:
-                result = branchDoRemove(parentSiblingMinimax);
+                result = branchDoRemove(alpha, beta);
                 assert simulator.getColor() == color && simulator.getState() == state;
                 break;
             case REMOVE_SECOND:
-                result = branchDoRemoveOrPass(parentSiblingMinimax);
+                result = branchDoRemoveOrPass(alpha, beta);
                 assert simulator.getColor() == color && simulator.getState() == state;
                 break;
             case COMPLETED:
@@ -505,11 +730,108 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 throw new IllegalStateException("Game state is: " + state);
         }
 
-        if (SAVE_STATES) {
-            minimaxResults.put(minimaxBranchState, result);
+        if (SAVE_STATES && !aborted) {
+            int bound = result <= alpha ? PylosTranspositionTable.UPPER
+                    : result >= beta ? PylosTranspositionTable.LOWER : PylosTranspositionTable.EXACT;
+            table.store(minimaxBranchState, depth, toTable(result, ply), bound, branchBestMove);
         }
 
         branchDepth--;
         return result;
     }
+
+    /**
+     * quiescence search past the horizon: the result of the simulated position if only square completions and the
+     * removes after them are played. At the start of a turn the color to move may also stop (stand pat) with the
+     * static result, removes are forced. Nothing is stored in the table, the result depends on alpha and beta.
+     */
+    private double quiesce(double alpha, double beta) {
+
+        if (ITERATIVE_DEEPENING && outOfBudget()) {
+            return 0;
+        }
+
+        final PylosPlayerColor currentColor = simulator.getColor();
+        final PylosGameState state = simulator.getState();
+        if (state == PylosGameState.COMPLETED) {
+            return simulator.getWinner() == PLAYER_COLOR ? WIN_THIS - (branchDepth + 1) : WIN_OTHER + (branchDepth + 1);
+        }
+        final double standPat = board.getReservesSize(PLAYER_COLOR) - board.getReservesSize(PLAYER_COLOR.other());
+        if (state == PylosGameState.DRAW || branchDepth == MAX_BRANCH_DEPTH + QUIESCENCE_MAX_DEPTH || quiescenceNodes >= maxQuiescenceNodes) {
+            return standPat;
+        }
+        quiescenceNodes++;
+
+        double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
+        if (state == PylosGameState.MOVE) {
+            minimax = standPat;
+            if (currentColor == PLAYER_COLOR ? minimax >= beta : minimax <= alpha) return minimax;
+        }
+
+        branchDepth++;
+        final int[] moves = moveBuffers[branchDepth];
+        final int nMoves = simulator.generateMoves(moves);
+        final PylosLocation[] locations = board.getLocations();
+        for (int moveId = 0; moveId < nMoves; moveId++) {
+            if (state == PylosGameState.MOVE && !completesSquare(locations[PylosMove.getTo(moves[moveId])], currentColor)) {
+                continue;
+            }
+            simulator.apply(moves[moveId]);
+            if (state == PylosGameState.MOVE && simulator.getState() != PylosGameState.REMOVE_FIRST) {
+                /* the sphere came from the square itself */
+                simulator.undo();
+                continue;
+            }
+            double result;
+            if (currentColor == PLAYER_COLOR) {
+                result = quiesce(Math.max(alpha, minimax), beta);
+                minimax = Math.max(minimax, result);
+            } else {
+                result = quiesce(alpha, Math.min(beta, minimax));
+                minimax = Math.min(minimax, result);
+            }
+            simulator.undo();
+            if (aborted || (currentColor == PLAYER_COLOR ? minimax >= beta : minimax <= alpha)) break;
+        }
+        branchDepth--;
+        return minimax;
+    }
+
+    /**
+     * returns true if a sphere of 'color' on the empty location 'to' completes a square of 'color'
+     */
+    private static boolean completesSquare(PylosLocation to, PylosPlayerColor color) {
+        for (PylosSquare square : to.getSquares()) {
+            if (square.getInSquare(color) == 3 && square.getInSquare() == 3) return true;
+        }
+        return false;
+    }
+
+    /**
+     * returns the result of a tablebase entry of the simulated position with 'color' to move, as if every turn to the
+     * end of the game were a single step
+     */
+    private double fromTablebase(int entry, PylosPlayerColor color) {
+        if (entry == PylosTablebase.DRAW) return 0;
+        int steps = branchDepth + PylosTablebase.getDistance(entry) + 1;
+        boolean thisWins = PylosTablebase.isWin(entry) == (color == PLAYER_COLOR);
+        return thisWins ? WIN_THIS - steps : WIN_OTHER + steps;
+    }
+
+    /**
+     * returns 'value' as stored in the table: a win or loss counts the steps from the node at 'ply' instead of from
+     * the root, so it stays valid when the position is reached at another branch depth or in a later move
+     */
+    private int toTable(double value, int ply) {
+        assert value == Math.rint(value) : value;
+        if (value > WIN_THRESHOLD_THIS) return (int) value + ply;
+        if (value < WIN_THRESHOLD_OTHER) return (int) value - ply;
+        return (int) value;
+    }
+
+    private double fromTable(int value, int ply) {
+        if (value > WIN_THRESHOLD_THIS) return value - ply;
+        if (value < WIN_THRESHOLD_OTHER) return value + ply;
+        return value;
+    }
 }
@@ -0,0 +1,342 @@
+package be.kuleuven.pylos.player.codes;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+import be.kuleuven.pylos.search.PylosMoveOrdering;
+import be.kuleuven.pylos.search.PylosTablebase;
+import be.kuleuven.pylos.search.PylosTranspositionTable;
+
+import java.util.Random;
+
+/**
+ * The search shared by PylosPlayerPVS and PylosPlayerYBWC: a principal variation search (NegaScout) on the packed
+ * moves of PylosGameSimulator.
+ * <p>
+ * Values are negamax values: the reserves of the color to move minus the reserves of the other color, or a win or
+ * loss for the color to move. A remove (and the pass after it) is played by the color that completed the square, so
+ * the value of such a child is not negated and its window is passed on as is.
+ * <p>
+ * The first child of a node is searched with the full window, the others with a null window around alpha, and only
+ * re-searched with the full window if they turn out to be better. Every move is searched with depth 1, 2, ..
+ * 'depth', each iteration with an aspiration window around the value of the previous one and with the best move of
+ * the previous one first. Results are kept in a transposition table that is shared by all moves of a game.
+ * Inside the tree the moves are ordered by PylosMoveOrdering: the best move of the table, killer moves, history.
+ * With a tablebase (see setTablebase(..)) the search stops at every position of the tablebase.
+ */
+abstract class PylosPlayerNegamax extends PylosPlayer {
+
+    final int WIN = 2000;                       // decremented with the steps to the end of the game
+    final int WIN_THRESHOLD = 1000;
+    final int INFINITE = 9999;
+    final boolean USE_RANDOM = true;
+    private final int ASPIRATION_WINDOW = 1;    // doubled after every failed aspiration search
+    private final int ASPIRATION_MIN_DEPTH = 3;
+    private final int TABLE_LOG2_ENTRIES = 20;  // 2^20 entries of 16 bytes, allocated at the first move
+
+    final int MAX_DEPTH;
+    final int THREADS;
+
+    PylosTranspositionTable table;
+    private PylosTablebase tablebase;   // null if none
+
+    PylosPlayerNegamax(int depth, int threads) {
+        if (depth < 1 || depth > PylosTranspositionTable.MAX_DEPTH) {
+            throw new IllegalArgumentException("depth should be between 1 and " + PylosTranspositionTable.MAX_DEPTH + " (is " + depth + ")");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads should be at least 1 (is " + threads + ")");
+        }
+        MAX_DEPTH = depth;
+        THREADS = threads;
+    }
+
+    /**
+     * lets the search stop at the positions of 'tablebase' (null for none), their result is known
+     *
+     * @param tablebase
+     */
+    public void setTablebase(PylosTablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * a new game starts: the table is cleared, its results may be of positions of another game
+     */
+    @Override
+    public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
+        super.init(playerColor, other, observer, random);
+        if (table != null) table.clear();
+    }
+
+    @Override
+    public void doMove(PylosGameIF game, PylosBoard board) {
+        search(game, board);
+    }
+
+    @Override
+    public void doRemove(PylosGameIF game, PylosBoard board) {
+        search(game, board);
+    }
+
+    @Override
+    public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
+        search(game, board);
+    }
+
+    /**
+     * searches the position of 'game' on 'board' and plays the best move
+     */
+    abstract void search(PylosGameIF game, PylosBoard board);
+
+    /**
+     * allocates the table at the first move and starts a new search in it
+     */
+    void newSearch() {
+        if (table == null) table = new PylosTranspositionTable(TABLE_LOG2_ENTRIES);
+        table.newSearch();
+    }
+
+    /**
+     * shuffles the first 'nMoves' of 'moves' with 'random'
+     */
+    static void shuffle(int[] moves, int nMoves, Random random) {
+        for (int i = nMoves - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = moves[i];
+            moves[i] = moves[j];
+            moves[j] = tmp;
+        }
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    /**
+     * the state of the search of one thread or task
+     */
+    abstract class Searcher {
+
+        final PylosMoveOrdering ordering;
+        final int[][] moveBuffers;          // one buffer of generated moves per ply
+        PylosGameSimulator simulator;
+        PylosBoard board;
+        int bestIndex;                      // index of the best move of the last searchMoves(..)
+        int searchedDepth;                  // the depth of the last iteration of searchMain(..)
+        long nodes;
+        boolean aborted;                    // the search was stopped, its results are not valid
+
+        Searcher(int maxMoves) {
+            ordering = new PylosMoveOrdering(MAX_DEPTH + 1, maxMoves);
+            moveBuffers = new int[MAX_DEPTH + 1][maxMoves];
+        }
+
+        /**
+         * returns true if the search has to stop, checked at every node
+         */
+        abstract boolean isStopped();
+
+        /**
+         * returns a board with the position of 'snapshot', the board of the previous search is reused if possible
+         */
+        PylosBoard copyOf(PylosBoardSnapshot snapshot) {
+            if (board == null || board.SIZE != snapshot.SIZE) {
+                return PylosBoard.fromSnapshot(snapshot);
+            }
+            board.restore(snapshot);
+            return board;
+        }
+
+        /**
+         * lets the next search start in the position on 'board', in 'state' with 'color' to move
+         */
+        void setPosition(PylosGameState state, PylosPlayerColor color, PylosBoard board) {
+            this.simulator = new PylosGameSimulator(state, color, board);
+            this.board = board;
+            this.nodes = 0;
+            this.aborted = false;
+        }
+
+        /**
+         * iterative deepening with aspiration windows over 'rootMoves', returns the value of the best one, which is
+         * moved to the front
+         */
+        int searchMain(int[] rootMoves, int nRootMoves) {
+            int value = 0;
+            int depth;
+            for (depth = 1; depth <= MAX_DEPTH; depth++) {
+                if (depth < ASPIRATION_MIN_DEPTH) {
+                    value = searchRoot(rootMoves, nRootMoves, depth, -INFINITE, INFINITE);
+                } else {
+                    int delta = ASPIRATION_WINDOW;
+                    int alpha = value - delta;
+                    int beta = value + delta;
+                    while (true) {
+                        value = searchRoot(rootMoves, nRootMoves, depth, alpha, beta);
+                        if (value <= alpha) {
+                            alpha = Math.max(value - delta, -INFINITE);
+                        } else if (value >= beta) {
+                            beta = Math.min(value + delta, INFINITE);
+                        } else {
+                            break;
+                        }
+                        delta *= 2;
+                    }
+                }
+                /* a win or loss is known, deeper iterations can't change the result */
+                if (value > WIN_THRESHOLD || value < -WIN_THRESHOLD) break;
+            }
+            searchedDepth = Math.min(depth, MAX_DEPTH);
+            return value;
+        }
+
+        /**
+         * searches 'rootMoves' with 'depth' steps after them, moves the best one to the front and returns its value
+         */
+        int searchRoot(int[] rootMoves, int nRootMoves, int depth, int alpha, int beta) {
+            int best = searchMoves(rootMoves, nRootMoves, depth + 1, 0, alpha, beta, simulator.getColor());
+
+            /* the best move first, the other ones keep their order */
+            int bestMove = rootMoves[bestIndex];
+            System.arraycopy(rootMoves, 0, rootMoves, 1, bestIndex);
+            rootMoves[0] = bestMove;
+            return best;
+        }
+
+        /**
+         * returns the value of the position after a move of 'color' for 'color', the move is already applied
+         */
+        int searchChild(int depth, int ply, int alpha, int beta, PylosPlayerColor color) {
+            if (simulator.getColor() == color) {
+                return search(depth, ply, alpha, beta);
+            }
+            return -search(depth, ply, -beta, -alpha);
+        }
+
+        /**
+         * returns the negamax value of the simulated position, exact if it lies in ]alpha, beta[, otherwise a bound
+         * (an upper bound if <= alpha, a lower bound if >= beta)
+         */
+        int search(int depth, int ply, int alpha, int beta) {
+            nodes++;
+            if (isStopped()) {
+                aborted = true;
+                return 0;
+            }
+            final PylosPlayerColor color = simulator.getColor();
+            final PylosGameState state = simulator.getState();
+
+            if (state == PylosGameState.COMPLETED) {
+                return simulator.getWinner() == color ? WIN - ply : -WIN + ply;
+            }
+            if (state == PylosGameState.DRAW) {
+                return 0;
+            }
+            if (tablebase != null && state == PylosGameState.MOVE) {
+                int entry = tablebase.probe(board, color);
+                if (entry != PylosTablebase.UNKNOWN) {
+                    if (entry == PylosTablebase.DRAW) return 0;
+                    /* every turn to the end of the game counts as a single step */
+                    int steps = ply + PylosTablebase.getDistance(entry);
+                    return PylosTablebase.isWin(entry) ? WIN - steps : -WIN + steps;
+                }
+            }
+            if (depth == 0) {
+                return board.getReservesSize(color) - board.getReservesSize(color.other());
+            }
+
+            final long hash = simulator.getHash();
+            long entry = table.probe(hash);
+            if (entry != PylosTranspositionTable.MISS && PylosTranspositionTable.getDepth(entry) >= depth) {
+                int value = fromTable(PylosTranspositionTable.getValue(entry), ply);
+                int bound = PylosTranspositionTable.getBound(entry);
+                if (bound == PylosTranspositionTable.EXACT
+                        || (bound == PylosTranspositionTable.LOWER && value >= beta)
+                        || (bound == PylosTranspositionTable.UPPER && value <= alpha)) {
+                    return value;
+                }
+            }
+            final int tableMove = entry == PylosTranspositionTable.MISS ? PylosMove.NONE : PylosTranspositionTable.getMove(entry);
+
+            final int[] moves = moveBuffers[ply];
+            final int nMoves = simulator.generateMoves(moves);
+            ordering.order(moves, nMoves, tableMove, ply, color.ordinal());
+            int best = searchMoves(moves, nMoves, depth, ply, alpha, beta, color);
+            if (aborted) {
+                return 0;
+            }
+
+            int bound = best <= alpha ? PylosTranspositionTable.UPPER
+                    : best >= beta ? PylosTranspositionTable.LOWER : PylosTranspositionTable.EXACT;
+            table.store(hash, depth, toTable(best, ply), bound, moves[bestIndex]);
+            return best;
+        }
+
+        /**
+         * searches the moves of 'color' of the simulated position at 'ply' with 'depth' steps left, one after the
+         * other, and returns the best value (see search(..)), the index of the best move is left in bestIndex
+         */
+        int searchMoves(int[] moves, int nMoves, int depth, int ply, int alpha, int beta, PylosPlayerColor color) {
+            int best = -INFINITE;
+            int bestIndex = 0;
+            for (int i = 0; i < nMoves && !aborted; i++) {
+                int value;
+                simulator.apply(moves[i]);
+                if (i == 0) {
+                    value = searchChild(depth - 1, ply + 1, alpha, beta, color);
+                } else {
+                    value = searchChild(depth - 1, ply + 1, alpha, alpha + 1, color);
+                    if (value > alpha && value < beta) {
+                        value = searchChild(depth - 1, ply + 1, alpha, beta, color);
+                    }
+                }
+                simulator.undo();
+                assert simulator.getColor() == color : simulator.getColor() + "\tshould be: " + color;
+
+                if (value > best && !aborted) {
+                    best = value;
+                    bestIndex = i;
+                    if (value > alpha) alpha = value;
+                    if (value >= beta) {
+                        /* the root moves are ordered by the previous iteration, not by the history */
+                        if (ply > 0) ordering.cutoff(moves[i], ply, depth, color.ordinal());
+                        break;
+                    }
+                }
+            }
+            assert aborted || best != -INFINITE;
+
+            this.bestIndex = bestIndex;
+            return best;
+        }
+    }
+
+    /**
+     * returns 'value' as stored in the table: a win or loss counts the steps from the node at 'ply' instead of from
+     * the root, so it stays valid when the position is reached at another ply or in a later move
+     */
+    int toTable(int value, int ply) {
+        if (value > WIN_THRESHOLD) return value + ply;
+        if (value < -WIN_THRESHOLD) return value - ply;
+        return value;
+    }
+
+    int fromTable(int value, int ply) {
+        if (value > WIN_THRESHOLD) return value - ply;
+        if (value < -WIN_THRESHOLD) return value + ply;
+        return value;
+    }
+
+    /* ------------------------------------------------------------------------------------------------------------ */
+
+    void shoutIfWinnerIsKnown(int value) {
+        if (value < -WIN_THRESHOLD) {
+            getObserver().shoutGood("If you do optimal moves\nYou can win in " + (WIN + value) + " steps :)");
+        } else if (value > WIN_THRESHOLD) {
+            getObserver().shoutBad("Even if you do optimal moves\nI'll win in " + (WIN - value) + " steps :)");
+        } else {
+            String shoutString = "In the worst case,\nI'll have " + Math.abs(value) + " spheres ";
+            shoutString += (value < 0 ? "less" : "more") + " than you";
+            getObserver().shout(shoutString);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package be.kuleuven.pylos.player.codes;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+import be.kuleuven.pylos.search.PylosOpeningBook;
+import be.kuleuven.pylos.search.PylosTranspositionTable;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Principal variation search (NegaScout) on the packed moves of PylosGameSimulator, see PylosPlayerNegamax for the
+ * search itself: negamax values, iterative deepening with aspiration windows, a transposition table shared by all
+ * moves of a game and PylosMoveOrdering.
+ * <p>
+ * With more than one thread the search is a lazy SMP search: helper threads search the same root on a copy of the
+ * board, in another root order and with every other helper one iteration ahead. They only share the transposition
+ * table (which doesn't need locks, see PylosTranspositionTable), so the main thread finds more results in the table
+ * and reaches its depth sooner. The helpers are stopped as soon as the main thread has its move.
+ * <p>
+ * With an opening book (see setOpeningBook(..)) the positions of the book are not searched at all.
+ * <p>
+ * With pondering (see setPondering(..)) the player searches during the turn of the other player: the reply of the
+ * other player is predicted with the best move of the table, and the position after it is searched on a copy of the
+ * board until the turn is over. Only the table is kept, if the prediction was right the search of the next move finds
+ * most of its results in it.
+ */
+public class PylosPlayerPVS extends PylosPlayerNegamax {
+
+    private PylosOpeningBook book;      // null if none
+    private Searcher[] searchers;       // [0] searches on the board of the game, the others are helpers
+    private ExecutorService helperPool;
+    private volatile boolean stopHelpers;
+    private boolean pondering;
+    private Searcher ponderer;          // searches during the turn of the other player, null if not yet needed
+    private Future<?> ponder;           // null if not pondering
+    private long ponderHash;            // the hash of the predicted position
+    private volatile boolean stopPondering;
+
+    /**
+     * searches 'depth' steps after every move, so a level searches as deep as the same level of PylosPlayerMiniMax
+     *
+     * @param depth
+     */
+    public PylosPlayerPVS(Integer depth) {
+        this(depth, 1);
+    }
+
+    /**
+     * searches 'depth' steps after every move with 'threads' threads (a lazy SMP search if more than one)
+     *
+     * @param depth
+     * @param threads
+     */
+    public PylosPlayerPVS(int depth, int threads) {
+        super(depth, threads);
+    }
+
+    /**
+     * plays the move of 'book' (null for none) without a search in the positions of the book
+     *
+     * @param book
+     */
+    public void setOpeningBook(PylosOpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * lets the player search during the turn of the other player if 'pondering', with a thread of its own
+     *
+     * @param pondering
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+    }
+
+    /**
+     * a new game starts: the table is cleared, its results may be of positions of another game
+     */
+    @Override
+    public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
+        stopPonder();
+        super.init(playerColor, other, observer, random);
+        if (searchers != null) {
+            for (Searcher searcher : searchers) {
+                searcher.ordering.clear();
+            }
+        }
+    }
+
+    @Override
+    public void doMove(PylosGameIF game, PylosBoard board) {
+        if (book != null && book.play(game, board, PLAYER_COLOR)) return;
+        search(game, board);
+    }
+
+    /* root ------------------------------------------------------------------------------------------------------- */
+
+    @Override
+    void search(PylosGameIF game, PylosBoard board) {
+        newSearch();
+        if (searchers == null || searchers[0].rootMoves.length < board.getMaxMoves()) {
+            searchers = new Searcher[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                searchers[i] = new Searcher(board.getMaxMoves());
+            }
+        }
+
+        Future<?>[] helpers = new Future<?>[THREADS - 1];
+        if (THREADS > 1) {
+            startHelperPool();
+            stopHelpers = false;
+            PylosBoardSnapshot snapshot = board.snapshot();
+            for (int i = 1; i < THREADS; i++) {
+                Searcher helper = searchers[i];
+                helper.init(game.getState(), helper.copyOf(snapshot), new Random(getRandom().nextLong()));
+                final int skip = i % 2;
+                helpers[i - 1] = helperPool.submit(() -> helper.searchHelper(skip));
+            }
+        }
+
+        Searcher main = searchers[0];
+        main.init(game.getState(), board, getRandom());
+        int value = main.searchMain(main.rootMoves, main.nRootMoves);
+
+        long nodes = main.nodes;
+        stopHelpers = true;
+        for (int i = 1; i < THREADS; i++) {
+            try {
+                helpers[i - 1].get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("A helper thread of the search failed", e);
+            }
+            nodes += searchers[i].nodes;
+        }
+
+        getObserver().shout("Searched depth: " + main.searchedDepth + " (" + nodes + " nodes)");
+        shoutIfWinnerIsKnown(value);
+        PylosMove.play(main.rootMoves[0], game, board, PLAYER_COLOR);
+    }
+
+    private void startHelperPool() {
+        if (helperPool == null) {
+            /* idle threads end after a minute, a player that is no longer used doesn't keep them */
+            helperPool = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "PVS helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /* pondering -------------------------------------------------------------------------------------------------- */
+
+    /**
+     * predicts the turn of the other player on 'board' and starts searching the position after it
+     */
+    @Override
+    public void otherTurnStarted(PylosBoard board) {
+        /* nothing to predict with before the first search */
+        if (!pondering || table == null) return;
+        if (ponderer == null || ponderer.rootMoves.length < board.getMaxMoves()) {
+            ponderer = new Searcher(board.getMaxMoves());
+        }
+
+        /* the best moves of the table, until it is our turn */
+        PylosBoard position = ponderer.copyOf(board.snapshot());
+        PylosGameSimulator simulator = new PylosGameSimulator(PylosGameState.MOVE, PLAYER_COLOR.other(), position);
+        int[] moves = ponderer.moveBuffers[0];
+        while (simulator.getColor() != PLAYER_COLOR && simulator.getState() != PylosGameState.COMPLETED
+                && simulator.getState() != PylosGameState.DRAW) {
+            long entry = table.probe(simulator.getHash());
+            if (entry == PylosTranspositionTable.MISS) return;
+            int move = PylosTranspositionTable.getMove(entry);
+            int nMoves = simulator.generateMoves(moves);
+            int i = 0;
+            while (i < nMoves && moves[i] != move) i++;
+            /* the entry may be of another position with the same index */
+            if (i == nMoves) return;
+            simulator.apply(move);
+        }
+        if (simulator.getState() != PylosGameState.MOVE) return;
+
+        table.newSearch();
+        ponderer.init(PylosGameState.MOVE, position, new Random(getRandom().nextLong()));
+        ponderHash = position.getHash();
+        stopPondering = false;
+        startHelperPool();
+        ponder = helperPool.submit(() -> ponderer.searchHelper(0));
+    }
+
+    /**
+     * stops the search of the predicted position, its results stay in the table
+     */
+    @Override
+    public void otherTurnFinished(PylosBoard board) {
+        if (ponder == null) return;
+        stopPonder();
+        getObserver().shout("Pondered: " + ponderer.nodes + " nodes, "
+                + (board.getHash() == ponderHash ? "predicted move played" : "other move played"));
+    }
+
+    private void stopPonder() {
+        if (ponder == null) return;
+        stopPondering = true;
+        try {
+            ponder.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("The pondering thread failed", e);
+        } finally {
+            ponder = null;
+        }
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    /**
+     * the state of the search of one thread
+     */
+    private final class Searcher extends PylosPlayerNegamax.Searcher {
+
+        private final int[] rootMoves;
+        private boolean helper;
+        private boolean pondering;          // a helper that is stopped by stopPondering instead of stopHelpers
+        private int nRootMoves;
+
+        private Searcher(int maxMoves) {
+            super(maxMoves);
+            rootMoves = new int[maxMoves];
+        }
+
+        private void init(PylosGameState state, PylosBoard board, Random random) {
+            setPosition(state, PLAYER_COLOR, board);
+            this.helper = this != searchers[0];
+            this.pondering = this == ponderer;
+            ordering.newSearch();
+
+            nRootMoves = simulator.generateMoves(rootMoves);
+            if (USE_RANDOM || helper) shuffle(rootMoves, nRootMoves, random);
+        }
+
+        /**
+         * a helper is stopped as soon as the main search (or the turn of the other player) is over
+         */
+        @Override
+        boolean isStopped() {
+            return helper && (pondering ? stopPondering : stopHelpers);
+        }
+
+        /**
+         * iterative deepening of a helper, starting 'skip' iterations ahead, until it is stopped
+         */
+        private void searchHelper(int skip) {
+            for (int depth = 1 + skip; depth <= MAX_DEPTH && !aborted; depth++) {
+                searchRoot(rootMoves, nRootMoves, depth, -INFINITE, INFINITE);
+            }
+        }
+    }
+}
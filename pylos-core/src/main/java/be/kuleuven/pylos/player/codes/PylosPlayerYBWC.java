@@ -0,0 +1,286 @@
+package be.kuleuven.pylos.player.codes;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel principal variation search on a ForkJoinPool, split with the young brothers wait concept.
+ * <p>
+ * The search is the one of PylosPlayerPVS (see PylosPlayerNegamax: negamax values, removes and passes are not
+ * negated, iterative deepening with aspiration windows, a shared transposition table and PylosMoveOrdering). At a
+ * node with more than SPLIT_MIN_DEPTH steps left, the first (eldest) move is searched by the thread itself. If it
+ * doesn't cause a cutoff, the node becomes a split point: all other moves are forked as tasks, each searching on a
+ * board of its own (restored from a snapshot of the node) with the best value found so far at the split point as
+ * alpha. A cutoff at a split point cancels the tasks of its other moves and, through their split points, all the
+ * tasks below them.
+ * <p>
+ * The search state of a task (a board, its simulator, move buffers and move ordering) is taken from a pool when the
+ * task starts and returned when it ends, so there is never more state than there are running tasks. With one thread
+ * the search never splits. The ForkJoinPool is shared by all players with the same number of threads, its idle
+ * threads end after a while.
+ */
+public class PylosPlayerYBWC extends PylosPlayerNegamax {
+
+    /* one pool per number of threads, shared by all players, see getPool(..) */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private final int SPLIT_MIN_DEPTH = 4;      // shallower nodes are searched by one thread, a task costs more
+
+    private final ConcurrentLinkedQueue<Searcher> searchers = new ConcurrentLinkedQueue<>();
+    private final LongAdder nodes = new LongAdder();
+    private int[] rootMoves;
+
+    /**
+     * searches 'depth' steps after every move (like PylosPlayerPVS) with 'threads' threads
+     *
+     * @param depth
+     * @param threads
+     */
+    public PylosPlayerYBWC(int depth, int threads) {
+        super(depth, threads);
+    }
+
+    /**
+     * a new game starts: the table is cleared, its results may be of positions of another game
+     */
+    @Override
+    public void init(PylosPlayerColor playerColor, PylosPlayer other, PylosPlayerObserver observer, Random random) {
+        super.init(playerColor, other, observer, random);
+        for (Searcher searcher : searchers) {
+            searcher.ordering.clear();
+        }
+    }
+
+    /* root ------------------------------------------------------------------------------------------------------- */
+
+    @Override
+    void search(PylosGameIF game, PylosBoard board) {
+        newSearch();
+        if (rootMoves == null || rootMoves.length < board.getMaxMoves()) {
+            rootMoves = new int[board.getMaxMoves()];
+            searchers.clear();
+        }
+        for (Searcher searcher : searchers) {
+            searcher.ordering.newSearch();
+        }
+        nodes.reset();
+
+        /* the game board is only read here, the tasks search on boards of their own */
+        PylosGameSimulator simulator = new PylosGameSimulator(game.getState(), PLAYER_COLOR, board);
+        final int nRootMoves = simulator.generateMoves(rootMoves);
+        if (USE_RANDOM) shuffle(rootMoves, nRootMoves, getRandom());
+
+        RootTask root = new RootTask(board.snapshot(), game.getState(), nRootMoves);
+        int value = getPool(THREADS).invoke(root);
+
+        getObserver().shout("Searched depth: " + root.depth + " (" + nodes.sum() + " nodes)");
+        shoutIfWinnerIsKnown(value);
+        PylosMove.play(rootMoves[0], game, board, PLAYER_COLOR);
+    }
+
+    /**
+     * returns the pool with 'threads' threads, created at its first use: a pool per player would keep its threads
+     * until they time out, even if the player is no longer used
+     */
+    private static ForkJoinPool getPool(int threads) {
+        return POOLS.computeIfAbsent(threads, ForkJoinPool::new);
+    }
+
+    private Searcher acquire(PylosBoardSnapshot snapshot, PylosGameState state, PylosPlayerColor color, SplitPoint splitPoint) {
+        Searcher searcher = searchers.poll();
+        if (searcher == null) {
+            searcher = new Searcher(rootMoves.length);
+        }
+        searcher.load(snapshot, state, color, splitPoint);
+        return searcher;
+    }
+
+    private void release(Searcher searcher) {
+        nodes.add(searcher.nodes);
+        searchers.add(searcher);
+    }
+
+    /* tasks ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * iterative deepening over the root moves, returns the value of the best one, which is moved to the front
+     */
+    private final class RootTask extends RecursiveTask<Integer> {
+
+        private final PylosBoardSnapshot snapshot;
+        private final PylosGameState state;
+        private final int nRootMoves;
+        private int depth;
+
+        private RootTask(PylosBoardSnapshot snapshot, PylosGameState state, int nRootMoves) {
+            this.snapshot = snapshot;
+            this.state = state;
+            this.nRootMoves = nRootMoves;
+        }
+
+        @Override
+        protected Integer compute() {
+            Searcher searcher = acquire(snapshot, state, PLAYER_COLOR, null);
+            int value = searcher.searchMain(rootMoves, nRootMoves);
+            assert !searcher.aborted;
+            depth = searcher.searchedDepth;
+            release(searcher);
+            return value;
+        }
+    }
+
+    /**
+     * searches one of the younger moves of a split point
+     */
+    private final class MoveTask extends RecursiveTask<Integer> {
+
+        private final SplitPoint splitPoint;
+        private final PylosBoardSnapshot snapshot;
+        private final PylosGameState state;
+        private final PylosPlayerColor color;
+        private final int move;
+        private final int depth;
+        private final int ply;
+        private boolean valid;              // false if the task was cancelled, the result is not a search result
+
+        private MoveTask(SplitPoint splitPoint, PylosBoardSnapshot snapshot, PylosGameState state, PylosPlayerColor color, int move, int depth, int ply) {
+            this.splitPoint = splitPoint;
+            this.snapshot = snapshot;
+            this.state = state;
+            this.color = color;
+            this.move = move;
+            this.depth = depth;
+            this.ply = ply;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (splitPoint.isCancelled()) {
+                return 0;
+            }
+            Searcher searcher = acquire(snapshot, state, color, splitPoint);
+            searcher.simulator.apply(move);
+            int alpha = splitPoint.alpha;
+            int beta = splitPoint.BETA;
+            int value = searcher.searchChild(depth, ply, alpha, alpha + 1, color);
+            if (value > alpha && value < beta && !searcher.aborted) {
+                value = searcher.searchChild(depth, ply, alpha, beta, color);
+            }
+            valid = !searcher.aborted;
+            release(searcher);
+            return value;
+        }
+    }
+
+    /**
+     * a node whose younger moves are searched in parallel
+     */
+    private static final class SplitPoint {
+
+        private final SplitPoint parent;
+        private final int BETA;
+        private volatile int alpha;
+        private volatile boolean cutoff;
+
+        private SplitPoint(SplitPoint parent, int alpha, int beta) {
+            this.parent = parent;
+            this.alpha = alpha;
+            this.BETA = beta;
+        }
+
+        /**
+         * returns true if this split point or one above it had a cutoff, its tasks don't have to finish
+         */
+        private boolean isCancelled() {
+            for (SplitPoint splitPoint = this; splitPoint != null; splitPoint = splitPoint.parent) {
+                if (splitPoint.cutoff) return true;
+            }
+            return false;
+        }
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    /**
+     * the state of the search of one task
+     */
+    private final class Searcher extends PylosPlayerNegamax.Searcher {
+
+        private SplitPoint splitPoint;      // the split point of the task, null for the root
+
+        private Searcher(int maxMoves) {
+            super(maxMoves);
+        }
+
+        private void load(PylosBoardSnapshot snapshot, PylosGameState state, PylosPlayerColor color, SplitPoint splitPoint) {
+            setPosition(state, color, copyOf(snapshot));
+            this.splitPoint = splitPoint;
+        }
+
+        /**
+         * a task is stopped as soon as its split point or one above it had a cutoff
+         */
+        @Override
+        boolean isStopped() {
+            return splitPoint != null && splitPoint.isCancelled();
+        }
+
+        /**
+         * searches the eldest brother itself and, if it doesn't cause a cutoff, the younger ones in parallel
+         */
+        @Override
+        int searchMoves(int[] moves, int nMoves, int depth, int ply, int alpha, int beta, PylosPlayerColor color) {
+            if (THREADS == 1 || depth <= SPLIT_MIN_DEPTH || nMoves < 2) {
+                return super.searchMoves(moves, nMoves, depth, ply, alpha, beta, color);
+            }
+            int best = super.searchMoves(moves, 1, depth, ply, alpha, beta, color);
+            if (aborted || best >= beta) return best;
+            return split(moves, nMoves, depth, ply, alpha, beta, color, best);
+        }
+
+        /**
+         * searches moves[1..] in parallel, returns the best value of all moves (including 'best' of moves[0])
+         */
+        private int split(int[] moves, int nMoves, int depth, int ply, int alpha, int beta, PylosPlayerColor color, int best) {
+            final SplitPoint splitPoint = new SplitPoint(this.splitPoint, Math.max(alpha, best), beta);
+            final PylosBoardSnapshot snapshot = board.snapshot();
+            final PylosGameState state = simulator.getState();
+            final MoveTask[] tasks = new MoveTask[nMoves];
+            for (int i = nMoves - 1; i >= 1; i--) {
+                tasks[i] = new MoveTask(splitPoint, snapshot, state, color, moves[i], depth - 1, ply + 1);
+                tasks[i].fork();
+            }
+
+            int bestIndex = 0;
+            for (int i = 1; i < nMoves; i++) {
+                int value = tasks[i].join();
+                if (!tasks[i].valid || splitPoint.cutoff) continue;
+                if (value > best) {
+                    best = value;
+                    bestIndex = i;
+                    if (value > splitPoint.alpha) splitPoint.alpha = value;
+                    if (value >= beta) {
+                        splitPoint.cutoff = true;
+                        ordering.cutoff(moves[i], ply, depth, color.ordinal());
+                    }
+                }
+            }
+
+            /* cancelled by a cutoff above: the tasks may have stopped before searching their move */
+            if (isStopped()) {
+                aborted = true;
+            }
+            this.bestIndex = bestIndex;
+            return best;
+        }
+    }
+}
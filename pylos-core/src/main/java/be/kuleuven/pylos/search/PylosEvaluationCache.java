@@ -0,0 +1,119 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBoard;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+import java.util.Arrays;
+
+/**
+ * Direct-mapped cache around a PylosEvaluator: every position maps to one entry, a new position replaces the one in
+ * it. The key is the exact state of the board (PylosBoard.toLong()) with the color above it on the standard board,
+ * the Zobrist hash with the color mixed in on other boards.
+ * <p>
+ * The entries are preallocated in a long and an int array, a probe or store doesn't allocate. The key is stored xor-ed
+ * with the value like in PylosTranspositionTable, so a torn write shows up as a miss. The hit statistics are not
+ * synchronized: use one cache per thread (the evaluator it wraps may be shared if it has no state).
+ */
+public final class PylosEvaluationCache implements PylosEvaluator {
+
+    private static final long EMPTY = 0;
+    private static final int COLOR_SHIFT = 60;                  // above the 60 bits of PylosBoard.toLong()
+    private static final long HASH_COLOR = 0x9E3779B97F4A7C15L;    // xor-ed into the hash of a board for dark
+
+    private final PylosEvaluator evaluator;
+    private final long[] keys;      // key ^ value
+    private final int[] values;
+    private final int shift;        // index = (key * multiplier) >>> shift
+    private long probes;
+    private long hits;
+
+    /**
+     * creates a cache of 2^'log2Entries' entries (12 bytes each) around 'evaluator'
+     *
+     * @param evaluator
+     * @param log2Entries
+     */
+    public PylosEvaluationCache(PylosEvaluator evaluator, int log2Entries) {
+        if (evaluator == null) {
+            throw new IllegalArgumentException("evaluator is null");
+        }
+        if (log2Entries < 1 || log2Entries > 30) {
+            throw new IllegalArgumentException("log2Entries should be between 1 and 30 (is " + log2Entries + ")");
+        }
+        this.evaluator = evaluator;
+        keys = new long[1 << log2Entries];
+        values = new int[1 << log2Entries];
+        shift = 64 - log2Entries;
+    }
+
+    /**
+     * returns the cached value of 'board' for 'color', evaluates and stores it on a miss
+     *
+     * @param board
+     * @param color
+     * @return
+     */
+    @Override
+    public int evaluate(PylosBoard board, PylosPlayerColor color) {
+        probes++;
+        final long key = board.isStandard()
+                ? board.toLong() | (color.ordinal() + 1L) << COLOR_SHIFT
+                : board.getHash() ^ (color == PylosPlayerColor.DARK ? HASH_COLOR : 0);
+        final int index = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        int value = values[index];
+        if ((keys[index] ^ value) == key && key != EMPTY) {
+            hits++;
+            return value;
+        }
+        value = evaluator.evaluate(board, color);
+        values[index] = value;
+        keys[index] = key ^ value;
+        return value;
+    }
+
+    /**
+     * removes all entries, needed if the evaluator changes its values
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    /* statistics ------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the number of evaluate(..) calls since the last resetStatistics()
+     *
+     * @return
+     */
+    public long getProbes() {
+        return probes;
+    }
+
+    /**
+     * returns the number of evaluate(..) calls answered from the cache since the last resetStatistics()
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * returns the fraction of evaluate(..) calls answered from the cache, 0 if there were none
+     *
+     * @return
+     */
+    public double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    public void resetStatistics() {
+        probes = 0;
+        hits = 0;
+    }
+}
@@ -0,0 +1,20 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBoard;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+/**
+ * Static evaluation of a board, used at the leaves of a search. An evaluation should only depend on the spheres on the
+ * board and the color it is evaluated for, so it can be cached (see PylosEvaluationCache).
+ */
+public interface PylosEvaluator {
+
+    /**
+     * returns the value of 'board' for 'color', higher is better for 'color'
+     *
+     * @param board
+     * @param color
+     * @return
+     */
+    int evaluate(PylosBoard board, PylosPlayerColor color);
+}
@@ -0,0 +1,141 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosMove;
+
+import java.util.Arrays;
+
+/**
+ * Move ordering for alpha-beta searches on packed moves (see PylosMove): the best move of the transposition table
+ * first, then the two killer moves of the ply, then the other moves on their history score.
+ * <p>
+ * A killer move is a move that caused a cutoff at the same ply in another branch. The history score of a move counts
+ * the cutoffs it caused anywhere in the search, weighted with the square of the remaining depth. It is kept per color
+ * and indexed by the location the sphere comes from and the location it goes to, so it carries over between the
+ * different sphere ids that make the same move. Scores are halved at every newSearch(), so older cutoffs count less.
+ * <p>
+ * An instance is not thread safe, every search thread needs one of its own.
+ */
+public final class PylosMoveOrdering {
+
+    private static final int TABLE_MOVE_SCORE = Integer.MAX_VALUE;
+    private static final int KILLER_SCORE = Integer.MAX_VALUE - 2;     // and KILLER_SCORE - 1 for the second killer
+    private static final int HISTORY_MAX = 1 << 24;                     // all scores are halved if one gets larger
+
+    private final int[][] killers;      // [ply] = the last two moves that caused a cutoff at that ply
+    private final int[][] history;      // [color][from << 8 | to]
+    private final int[] scores;
+
+    /**
+     * creates an ordering for searches of at most 'maxPly' plies deep and moves of at most 'maxMoves' moves
+     *
+     * @param maxPly
+     * @param maxMoves
+     */
+    public PylosMoveOrdering(int maxPly, int maxMoves) {
+        killers = new int[maxPly + 1][2];
+        history = new int[2][1 << 16];
+        scores = new int[maxMoves];
+    }
+
+    /**
+     * removes all killer moves and history scores
+     */
+    public void clear() {
+        for (int[] k : killers) {
+            k[0] = PylosMove.NONE;
+            k[1] = PylosMove.NONE;
+        }
+        for (int[] h : history) {
+            Arrays.fill(h, 0);
+        }
+    }
+
+    /**
+     * starts a new search: the killer moves are removed and the history scores are halved
+     */
+    public void newSearch() {
+        for (int[] k : killers) {
+            k[0] = PylosMove.NONE;
+            k[1] = PylosMove.NONE;
+        }
+        age();
+    }
+
+    /**
+     * sorts the first 'nMoves' moves of 'moves' (of color 'color' at 'ply'), best first
+     *
+     * @param moves
+     * @param nMoves
+     * @param tableMove the best move stored in the transposition table, or PylosMove.NONE
+     * @param ply
+     * @param color     the ordinal of the color to move
+     */
+    public void order(int[] moves, int nMoves, int tableMove, int ply, int color) {
+        assert ply < killers.length : "ply (=" + ply + ") is out of bounds";
+        final int killer0 = killers[ply][0];
+        final int killer1 = killers[ply][1];
+        final int[] h = history[color];
+
+        for (int i = 0; i < nMoves; i++) {
+            int move = moves[i];
+            int score;
+            if (move == tableMove) {
+                score = TABLE_MOVE_SCORE;
+            } else if (move == killer0) {
+                score = KILLER_SCORE;
+            } else if (move == killer1) {
+                score = KILLER_SCORE - 1;
+            } else {
+                score = h[index(move)];
+            }
+
+            /* insertion sort, the moves are generated in a sensible order so equal scores keep it */
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * registers that 'move' (of color 'color' at 'ply', with 'depth' plies left) caused a cutoff
+     *
+     * @param move
+     * @param ply
+     * @param depth
+     * @param color the ordinal of the color that played the move
+     */
+    public void cutoff(int move, int ply, int depth, int color) {
+        final int[] k = killers[ply];
+        if (k[0] != move) {
+            k[1] = k[0];
+            k[0] = move;
+        }
+
+        final int[] h = history[color];
+        final int i = index(move);
+        h[i] += depth * depth;
+        if (h[i] > HISTORY_MAX) {
+            age();
+        }
+    }
+
+    /* private methods -------------------------------------------------------------------------------------------- */
+
+    private void age() {
+        for (int[] h : history) {
+            for (int i = 0; i < h.length; i++) {
+                h[i] >>= 1;
+            }
+        }
+    }
+
+    private static int index(int move) {
+        return PylosMove.getFrom(move) << 8 | PylosMove.getTo(move);
+    }
+
+}
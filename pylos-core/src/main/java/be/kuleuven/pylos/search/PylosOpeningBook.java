@@ -0,0 +1,151 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Opening book of the standard board: the best move of every position at the start of a turn (game state MOVE) in
+ * the first plies of a game, searched offline by PylosOpeningBookGenerator. The file is memory-mapped by open(..),
+ * so a book can be opened once and shared by all players and threads.
+ * <p>
+ * A position is stored once for its 8 symmetric variants (see PylosSymmetry): its key is the canonical state with the
+ * color to move above it, and its move is stored in the locations of the canonical state. The records are sorted on
+ * their key, a probe is a binary search.
+ * <pre>
+ * file:   magic (8 bytes) | plies (4 bytes) | number of records (4 bytes) | record 0 | record 1 | ..
+ * record: key (8 bytes) | from (1 byte, PylosMove.NO_LOCATION for an add) | to (1 byte)
+ * </pre>
+ */
+public final class PylosOpeningBook {
+
+    static final long MAGIC = 0x50594C4F534F4231L;     // "PYLOSOB1"
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 10;
+
+    private static final int COLOR_SHIFT = 60;
+
+    private final int plies;
+    private final int size;
+    private final MappedByteBuffer records;
+
+    private PylosOpeningBook(int plies, int size, MappedByteBuffer records) {
+        this.plies = plies;
+        this.size = size;
+        this.records = records;
+    }
+
+    /**
+     * memory-maps the book in 'file', written by PylosOpeningBookGenerator
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static PylosOpeningBook open(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readLong() != MAGIC) {
+                throw new IOException(file + " is not a Pylos opening book");
+            }
+            int plies = raf.readInt();
+            int size = raf.readInt();
+            if (size < 0 || (long) size * RECORD_SIZE > Integer.MAX_VALUE || raf.length() != HEADER_SIZE + (long) size * RECORD_SIZE) {
+                throw new IOException(file + " should hold " + size + " records, it is truncated or too large");
+            }
+            MappedByteBuffer records = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) size * RECORD_SIZE);
+            return new PylosOpeningBook(plies, size, records);
+        }
+    }
+
+    /**
+     * returns the number of plies from the start of the game the book was generated for
+     *
+     * @return
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * returns the number of positions in the book
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * returns the book move (see PylosMove) of 'color' on 'board' at the start of a turn, or PylosMove.NONE if the
+     * position is not in the book
+     *
+     * @param board
+     * @param color
+     * @return
+     */
+    public int probe(PylosBoard board, PylosPlayerColor color) {
+        if (!board.isStandard()) return PylosMove.NONE;
+        final long canonical = PylosSymmetry.canonicalize(board.toLong());
+        final int record = find(getKey(PylosSymmetry.getState(canonical), color));
+        if (record < 0) return PylosMove.NONE;
+
+        final int t = PylosSymmetry.getTransform(canonical);
+        final int from = records.get(record * RECORD_SIZE + 8) & 0xFF;
+        final int to = PylosSymmetry.toOriginalLocation(t, records.get(record * RECORD_SIZE + 9) & 0xFF);
+        final PylosLocation[] locations = board.getLocations();
+        if (from == PylosMove.NO_LOCATION) {
+            if (board.getReservesSize(color) == 0 || !locations[to].isUsable()) return PylosMove.NONE;
+            return PylosMove.add(board.getReserve(color).ID, to);
+        }
+        PylosSphere sphere = locations[PylosSymmetry.toOriginalLocation(t, from)].getSphere();
+        return sphere != null && sphere.PLAYER_COLOR == color && sphere.canMoveTo(locations[to])
+                ? PylosMove.of(sphere, locations[to]) : PylosMove.NONE;
+    }
+
+    /**
+     * plays the book move of 'color' in 'game' and returns true, or returns false if there is none
+     *
+     * @param game
+     * @param board
+     * @param color
+     * @return
+     */
+    public boolean play(PylosGameIF game, PylosBoard board, PylosPlayerColor color) {
+        if (game.getState() != PylosGameState.MOVE) return false;
+        int move = probe(board, color);
+        if (move == PylosMove.NONE) return false;
+        PylosMove.play(move, game, board, color);
+        return true;
+    }
+
+    /**
+     * returns the key of the canonical state 'state' with 'color' to move
+     */
+    static long getKey(long state, PylosPlayerColor color) {
+        return state | (long) color.ordinal() << COLOR_SHIFT;
+    }
+
+    /**
+     * returns the index of the record with 'key', or -1
+     */
+    private int find(long key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = records.getLong(mid * RECORD_SIZE);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,182 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Generates a PylosOpeningBook: every position at the start of a turn in the first 'plies' plies of a game is
+ * searched by a player (typically a deep search, e.g. PylosPlayerPVS) and the move it plays is stored.
+ * <p>
+ * The positions are found by playing all moves from the empty board. Symmetric positions are searched once, the
+ * variants reached by another order of the same moves as well.
+ */
+public final class PylosOpeningBookGenerator {
+
+    private final Map<Long, Integer> plyLeft = new HashMap<>();    // [key] = the most plies left it was reached with
+    private final List<PylosBoardSnapshot> positions = new ArrayList<>();
+    private final List<PylosPlayerColor> colors = new ArrayList<>();
+    private final PylosBoard board = new PylosBoard();
+    private final PylosGameSimulator simulator = new PylosGameSimulator(PylosGameState.MOVE, PylosPlayerColor.LIGHT, board);
+    private final int[][] moveBuffers;
+
+    private PylosOpeningBookGenerator(int plies) {
+        moveBuffers = new int[plies][board.getMaxMoves()];
+    }
+
+    public static PylosOpeningBook generate(Path file, int plies, Supplier<PylosPlayer> player) throws IOException {
+        return generate(file, plies, player, true);
+    }
+
+    /**
+     * writes the book of the first 'plies' plies of a game to 'file', with the moves of players created by 'player'
+     *
+     * @param file
+     * @param plies
+     * @param player
+     * @param print
+     * @return
+     * @throws IOException
+     */
+    public static PylosOpeningBook generate(Path file, int plies, Supplier<PylosPlayer> player, boolean print) throws IOException {
+        if (plies < 1) {
+            throw new IllegalArgumentException("plies should be at least 1 (is " + plies + ")");
+        }
+        PylosOpeningBookGenerator generator = new PylosOpeningBookGenerator(plies);
+        generator.addPositions(plies);
+        if (print) System.out.println("Generating an opening book of " + generator.positions.size() + " positions, " + plies + " plies");
+
+        /* the book moves, sorted on key */
+        final long start = System.nanoTime();
+        final PylosPlayer searcher = player.get();
+        final PylosPlayer other = player.get();
+        final TreeMap<Long, Integer> book = new TreeMap<>();
+        for (int i = 0; i < generator.positions.size(); i++) {
+            PylosBoard position = PylosBoard.fromSnapshot(generator.positions.get(i));
+            PylosPlayerColor color = generator.colors.get(i);
+            MoveRecordingGame game = new MoveRecordingGame();
+            searcher.init(color, other, PylosPlayerObserver.NONE, new Random(0));
+            searcher.doMove(game, position);
+            if (game.move == PylosMove.NONE) {
+                throw new IllegalStateException("The player did not add or move a sphere");
+            }
+
+            long canonical = PylosSymmetry.canonicalize(position.toLong());
+            int t = PylosSymmetry.getTransform(canonical);
+            int from = PylosMove.getFrom(game.move);
+            int to = PylosMove.getTo(game.move);
+            from = from == PylosMove.NO_LOCATION ? from : PylosSymmetry.toCanonicalLocation(t, from);
+            to = PylosSymmetry.toCanonicalLocation(t, to);
+            book.put(PylosOpeningBook.getKey(PylosSymmetry.getState(canonical), color), from << 8 | to);
+
+            if (print && (i + 1) % 1000 == 0) {
+                System.out.printf("%,8d positions searched (%.0f s)%n", i + 1, (System.nanoTime() - start) / 1e9);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeLong(PylosOpeningBook.MAGIC);
+            out.writeInt(plies);
+            out.writeInt(book.size());
+            for (Map.Entry<Long, Integer> entry : book.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeShort(entry.getValue());
+            }
+        }
+        if (print) System.out.printf("%,d positions written to %s (%.0f s)%n", book.size(), file, (System.nanoTime() - start) / 1e9);
+        return PylosOpeningBook.open(file);
+    }
+
+    /**
+     * adds the simulated position and all positions reached in the next 'plies' plies that are not added yet
+     */
+    private void addPositions(int plies) {
+        if (plies == 0 || simulator.getState() == PylosGameState.COMPLETED) return;
+        if (simulator.getState() == PylosGameState.MOVE) {
+            long key = PylosOpeningBook.getKey(board.toCanonicalLong(), simulator.getColor());
+            Integer seen = plyLeft.get(key);
+            if (seen != null && seen >= plies) return;
+            if (seen == null) {
+                positions.add(board.snapshot());
+                colors.add(simulator.getColor());
+            }
+            plyLeft.put(key, plies);
+        }
+
+        final int[] moves = moveBuffers[plies - 1];
+        final int nMoves = simulator.generateMoves(moves);
+        for (int i = 0; i < nMoves; i++) {
+            simulator.apply(moves[i]);
+            addPositions(plies - 1);
+            simulator.undo();
+        }
+    }
+
+    /**
+     * a game in which the move of the player is only recorded
+     */
+    private static class MoveRecordingGame implements PylosGameIF {
+        private int move = PylosMove.NONE;
+
+        @Override
+        public PylosGameState getState() {
+            return PylosGameState.MOVE;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+
+        @Override
+        public PylosPlayer getWinner() {
+            return null;
+        }
+
+        @Override
+        public int getReserveSizeOfWinner() {
+            return -1;
+        }
+
+        @Override
+        public void moveSphere(PylosSphere pylosSphere, PylosLocation toLocation) {
+            move = PylosMove.of(pylosSphere, toLocation);
+        }
+
+        @Override
+        public void removeSphere(PylosSphere pylosSphere) {
+        }
+
+        @Override
+        public void pass() {
+        }
+
+        @Override
+        public boolean moveSphereIsDraw(PylosSphere pylosSphere, PylosLocation toLocation) {
+            return false;
+        }
+
+        @Override
+        public boolean removeSphereIsDraw(PylosSphere pylosSphere) {
+            return false;
+        }
+
+        @Override
+        public boolean passIsDraw() {
+            return false;
+        }
+    }
+}
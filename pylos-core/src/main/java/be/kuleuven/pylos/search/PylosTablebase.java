@@ -0,0 +1,313 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBitBoard;
+import be.kuleuven.pylos.game.PylosBoard;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Endgame tablebase of the standard board: the game theoretic result of every position at the start of a turn (game
+ * state MOVE) in which both colors have reserves left, but at most 'maxReserves' together. It is generated offline by
+ * PylosTablebaseGenerator and memory-mapped by open(..), a probe reads a single byte of the file.
+ * <p>
+ * Positions are stored for the color to move, the position of the other color to move is the same position with the
+ * colors swapped. The index of a position is the sum of
+ * <ul>
+ * <li>the offset of its reserves (first all positions of 2 reserves in total, then of 3, ..),</li>
+ * <li>the rank of its used locations among all supported sets of as many locations, times the number of colorings,
+ * </li>
+ * <li>the rank of the locations of the color to move among the used locations (combinatorial number system).</li>
+ * </ul>
+ * A probe of a position with too many reserves returns right away, without reading the board. Otherwise it costs a
+ * binary search over the few hundred sets of used locations of its size and a loop over the spheres of the color to
+ * move.
+ * <p>
+ * An entry is the distance to the end of the game in turns plus 1. A turn is an add or move and the removes after it,
+ * so the distance is a lower bound of the steps. The game ends when a color runs out of reserves on its own add, so an
+ * odd distance is a loss and an even distance is a win for the color to move. DRAW positions can be played on forever
+ * by both colors (a draw by repetition in PylosGame), UNKNOWN positions need positions with more reserves to solve.
+ * <pre>
+ * file: magic (8 bytes) | max reserves (4 bytes) | 0 (4 bytes) | entry of index 0 | entry of index 1 | ..
+ * </pre>
+ */
+public final class PylosTablebase {
+
+    public static final int UNKNOWN = 0;
+    public static final int DRAW = 0xFF;
+    public static final int MAX_DISTANCE = DRAW - 2;
+
+    static final long MAGIC = 0x50594C4F53544231L;     // "PYLOSTB1"
+    static final int HEADER_SIZE = 16;
+
+    private static final int SPHERES_PER_PLAYER = PylosBitBoard.SPHERES_PER_PLAYER;
+    private static final int CHUNK_LOG2_SIZE = 30;       // a mapped buffer can't be larger than 2 GB
+    private static final long[][] BINOMIAL = new long[PylosBitBoard.LOCATIONS + 1][PylosBitBoard.LOCATIONS + 1];
+
+    static {
+        for (int n = 0; n <= PylosBitBoard.LOCATIONS; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    private final int maxReserves;
+    private final long[][] occupancies;     // [n] = every supported set of n used locations, ascending
+    private final long[][] offsets;         // [reserves to move][reserves other] = index of the first position, -1 if not stored
+    private final long size;
+    private final MappedByteBuffer[] chunks;
+
+    private PylosTablebase(int maxReserves, FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        this.maxReserves = maxReserves;
+        occupancies = new long[PylosBitBoard.LOCATIONS + 1][];
+        List<List<Long>> sets = new ArrayList<>();
+        for (int n = 0; n <= PylosBitBoard.LOCATIONS; n++) {
+            sets.add(new ArrayList<>());
+        }
+        addOccupancies(0, 0, 0, PylosBitBoard.LOCATIONS - maxReserves, sets);
+        for (int n = PylosBitBoard.LOCATIONS - maxReserves; n <= PylosBitBoard.LOCATIONS; n++) {
+            occupancies[n] = sets.get(n).stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+
+        offsets = new long[SPHERES_PER_PLAYER + 1][SPHERES_PER_PLAYER + 1];
+        for (long[] o : offsets) {
+            Arrays.fill(o, -1);
+        }
+        long offset = 0;
+        for (int reserves = 2; reserves <= maxReserves; reserves++) {
+            int n = PylosBitBoard.LOCATIONS - reserves;
+            for (int reservesToMove = 1; reservesToMove < reserves; reservesToMove++) {
+                int reservesOther = reserves - reservesToMove;
+                if (reservesToMove > SPHERES_PER_PLAYER || reservesOther > SPHERES_PER_PLAYER) continue;
+                offsets[reservesToMove][reservesOther] = offset;
+                offset += occupancies[n].length * BINOMIAL[n][SPHERES_PER_PLAYER - reservesToMove];
+            }
+        }
+        size = offset;
+
+        chunks = new MappedByteBuffer[(int) ((size + (1L << CHUNK_LOG2_SIZE) - 1) >>> CHUNK_LOG2_SIZE)];
+        for (int c = 0; c < chunks.length; c++) {
+            long start = (long) c << CHUNK_LOG2_SIZE;
+            chunks[c] = channel.map(mode, HEADER_SIZE + start, Math.min(1L << CHUNK_LOG2_SIZE, size - start));
+        }
+    }
+
+    /**
+     * memory-maps the tablebase in 'file', written by PylosTablebaseGenerator
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static PylosTablebase open(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readLong() != MAGIC) {
+                throw new IOException(file + " is not a Pylos tablebase");
+            }
+            int maxReserves = raf.readInt();
+            checkMaxReserves(maxReserves);
+            PylosTablebase tablebase = new PylosTablebase(maxReserves, raf.getChannel(), FileChannel.MapMode.READ_ONLY);
+            if (raf.length() != HEADER_SIZE + tablebase.size) {
+                throw new IOException(file + " should hold " + tablebase.size + " entries, it is truncated or of another version");
+            }
+            return tablebase;
+        }
+    }
+
+    /**
+     * creates the file of an empty tablebase (every entry UNKNOWN) and maps it for writing
+     */
+    static PylosTablebase create(Path file, int maxReserves) throws IOException {
+        checkMaxReserves(maxReserves);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(0);
+            raf.writeLong(MAGIC);
+            raf.writeInt(maxReserves);
+            raf.writeInt(0);
+            PylosTablebase tablebase = new PylosTablebase(maxReserves, raf.getChannel(), FileChannel.MapMode.READ_WRITE);
+            raf.setLength(HEADER_SIZE + tablebase.size);
+            return tablebase;
+        }
+    }
+
+    /**
+     * returns the most reserves (of both colors together) of a stored position
+     *
+     * @return
+     */
+    public int getMaxReserves() {
+        return maxReserves;
+    }
+
+    /**
+     * returns the number of stored positions (and bytes of entries)
+     *
+     * @return
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * returns the entry of the position on 'board' with 'color' to move, the board should be at the start of a turn
+     * (game state MOVE). UNKNOWN if the position is not stored.
+     *
+     * @param board
+     * @param color
+     * @return
+     */
+    public int probe(PylosBoard board, PylosPlayerColor color) {
+        final int reservesToMove = board.getReservesSize(color);
+        final int reservesOther = board.getReservesSize(color.other());
+        /* most positions of a search have too many reserves, those are rejected before the masks are collected */
+        if (!isStored(reservesToMove, reservesOther) || !board.isStandard()) return UNKNOWN;
+        return probe(board.getUsedLocations(color), board.getUsedLocations(color.other()), reservesToMove, reservesOther);
+    }
+
+    /**
+     * returns the entry of the position with the spheres 'toMove' and 'other' (masks by PylosLocation.ID) and the
+     * given reserves, at the start of a turn of the color of 'toMove'. UNKNOWN if the position is not stored.
+     *
+     * @param toMove
+     * @param other
+     * @param reservesToMove
+     * @param reservesOther
+     * @return
+     */
+    public int probe(long toMove, long other, int reservesToMove, int reservesOther) {
+        long index = getIndex(toMove, other, reservesToMove, reservesOther);
+        if (index < 0) return UNKNOWN;
+        return get(index);
+    }
+
+    /* entries ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns true if 'entry' is a win for the color to move
+     *
+     * @param entry
+     * @return
+     */
+    public static boolean isWin(int entry) {
+        return entry != UNKNOWN && entry != DRAW && (getDistance(entry) & 1) == 0;
+    }
+
+    /**
+     * returns true if 'entry' is a loss for the color to move
+     *
+     * @param entry
+     * @return
+     */
+    public static boolean isLoss(int entry) {
+        return entry != UNKNOWN && entry != DRAW && (getDistance(entry) & 1) == 1;
+    }
+
+    /**
+     * returns the turns to the end of the game of a win or loss
+     *
+     * @param entry
+     * @return
+     */
+    public static int getDistance(int entry) {
+        return entry - 1;
+    }
+
+    /* index, for the generator ----------------------------------------------------------------------------------- */
+
+    /**
+     * returns the index of a position, or -1 if it is not stored (also if some spheres are not supported)
+     */
+    long getIndex(long toMove, long other, int reservesToMove, int reservesOther) {
+        if (!isStored(reservesToMove, reservesOther)) return -1;
+        final long offset = offsets[reservesToMove][reservesOther];
+        final long occupied = toMove | other;
+        final int n = PylosBitBoard.LOCATIONS - reservesToMove - reservesOther;
+        assert (toMove & other) == 0 && Long.bitCount(occupied) == n && Long.bitCount(toMove) == SPHERES_PER_PLAYER - reservesToMove
+                : "Not a position of " + reservesToMove + " and " + reservesOther + " reserves";
+        final int occupancy = Arrays.binarySearch(occupancies[n], occupied);
+        if (occupancy < 0) return -1;
+        return offset + occupancy * BINOMIAL[n][SPHERES_PER_PLAYER - reservesToMove] + getColoringRank(occupied, toMove);
+    }
+
+    long getOffset(int reservesToMove, int reservesOther) {
+        return offsets[reservesToMove][reservesOther];
+    }
+
+    long[] getOccupancies(int n) {
+        return occupancies[n];
+    }
+
+    static long getColorings(int n, int k) {
+        return BINOMIAL[n][k];
+    }
+
+    int get(long index) {
+        return chunks[(int) (index >>> CHUNK_LOG2_SIZE)].get((int) (index & ((1L << CHUNK_LOG2_SIZE) - 1))) & 0xFF;
+    }
+
+    void set(long index, int entry) {
+        chunks[(int) (index >>> CHUNK_LOG2_SIZE)].put((int) (index & ((1L << CHUNK_LOG2_SIZE) - 1)), (byte) entry);
+    }
+
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /* private methods -------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns true if the positions with these reserves are stored
+     */
+    private boolean isStored(int reservesToMove, int reservesOther) {
+        return reservesToMove >= 1 && reservesOther >= 1 && reservesToMove + reservesOther <= maxReserves
+                && offsets[reservesToMove][reservesOther] >= 0;
+    }
+
+    private static void checkMaxReserves(int maxReserves) {
+        if (maxReserves < 2 || maxReserves > 2 * SPHERES_PER_PLAYER) {
+            throw new IllegalArgumentException("maxReserves should be between 2 and " + 2 * SPHERES_PER_PLAYER + " (is " + maxReserves + ")");
+        }
+    }
+
+    /**
+     * adds every supported set of at least 'minSize' used locations that equals 'occupied' below 'location'
+     */
+    private static void addOccupancies(int location, long occupied, int n, int minSize, List<List<Long>> sets) {
+        if (n + PylosBitBoard.LOCATIONS - location < minSize) return;
+        if (location == PylosBitBoard.LOCATIONS) {
+            sets.get(n).add(occupied);
+            return;
+        }
+        addOccupancies(location + 1, occupied, n, minSize, sets);
+        long below = PylosBitBoard.getSupportedBy(location);
+        if ((occupied & below) == below) {
+            addOccupancies(location + 1, occupied | 1L << location, n + 1, minSize, sets);
+        }
+    }
+
+    /**
+     * returns the rank of 'spheres' among all subsets of as many locations of 'occupied' (colexicographic order): the
+     * sum of binomial(j, k) for the k-th sphere at the j-th location of 'occupied'
+     */
+    private static long getColoringRank(long occupied, long spheres) {
+        long rank = 0;
+        int k = 0;
+        for (long m = spheres; m != 0; m &= m - 1) {
+            int j = Long.bitCount(occupied & (Long.lowestOneBit(m) - 1));
+            k++;
+            rank += BINOMIAL[j][k];
+        }
+        return rank;
+    }
+}
@@ -0,0 +1,243 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBitBoard;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Generates a PylosTablebase by retrograde analysis: first all positions that are lost in 1 turn (every move takes the
+ * last reserve sphere), then all positions that are won in 2 turns (a move to a position lost in 1), lost in 3 turns
+ * (every move to a position won in 2 or less), .. until a pass solves nothing more. Every pass scans the positions
+ * that are not solved yet and looks up the positions after each of their turns, so it needs no memory besides the
+ * memory-mapped file.
+ * <p>
+ * A turn that completes a square goes on with the removes (and the pass after the first remove), the positions after
+ * all these removes are positions after the turn. A remove takes a reserve back, so a turn can lead to a position
+ * with more reserves than the tablebase holds: such a position is not known, and neither is a position that needs it.
+ * <p>
+ * The positions that are still not solved afterwards are draws if no turn leads to a position that is not known and
+ * not a draw, which is found by taking out such positions until none is left.
+ * <p>
+ * The number of positions grows fast with the reserves (about 160 million for 2 reserves, 560 million for 3), one
+ * byte per position.
+ */
+public final class PylosTablebaseGenerator {
+
+    private static final int LIGHT = PylosBitBoard.LIGHT;
+    private static final int DARK = PylosBitBoard.DARK;
+    private static final int ESCAPE = -1;       // the position after a turn has too many reserves to be stored
+
+    private final PylosTablebase tablebase;
+    private final PylosBitBoard board = new PylosBitBoard();
+    private final long[] targets = new long[PylosBitBoard.LOCATIONS];
+
+    /* the turns of one position, see fold(..) */
+    private boolean drawPass;
+    private int pass;
+    private int winDistance;
+    private int lossDistance;
+    private boolean allWon;
+
+    private PylosTablebaseGenerator(PylosTablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    public static PylosTablebase generate(Path file, int maxReserves) throws IOException {
+        return generate(file, maxReserves, true);
+    }
+
+    /**
+     * writes the tablebase of all positions with at most 'maxReserves' reserves (of both colors together) to 'file'
+     *
+     * @param file
+     * @param maxReserves
+     * @param print
+     * @return
+     * @throws IOException
+     */
+    public static PylosTablebase generate(Path file, int maxReserves, boolean print) throws IOException {
+        PylosTablebase tablebase = PylosTablebase.create(file, maxReserves);
+        PylosTablebaseGenerator generator = new PylosTablebaseGenerator(tablebase);
+        if (print) System.out.println("Generating a tablebase of " + tablebase.getSize() + " positions, at most " + maxReserves + " reserves");
+
+        long start = System.nanoTime();
+        for (int pass = 1; pass <= PylosTablebase.MAX_DISTANCE; pass++) {
+            generator.pass = pass;
+            long solved = generator.scan(PylosTablebase.UNKNOWN);
+            if (print) System.out.printf("%3d turns: %,12d positions (%.0f s)%n", pass, solved, (System.nanoTime() - start) / 1e9);
+            if (solved == 0) break;
+        }
+
+        generator.drawPass = true;
+        generator.scan(-1);
+        for (long undecided = 1; undecided > 0; ) {
+            undecided = generator.scan(PylosTablebase.DRAW);
+            if (print) System.out.printf("    draws: %,12d positions taken out (%.0f s)%n", undecided, (System.nanoTime() - start) / 1e9);
+        }
+        tablebase.force();
+
+        if (print) {
+            long[] counts = new long[4];
+            for (long i = 0; i < tablebase.getSize(); i++) {
+                int entry = tablebase.get(i);
+                counts[PylosTablebase.isWin(entry) ? 0 : PylosTablebase.isLoss(entry) ? 1 : entry == PylosTablebase.DRAW ? 2 : 3]++;
+            }
+            System.out.printf("wins %,d, losses %,d, draws %,d, unknown %,d%n", counts[0], counts[1], counts[2], counts[3]);
+        }
+        return tablebase;
+    }
+
+    /**
+     * visits all positions with entry 'entry' and returns how many got another entry: solves unknown positions at
+     * distance 'pass' in a normal pass, marks all unknown positions as draws first in a draw pass with 'entry' -1,
+     * then takes out draws that are not
+     */
+    private long scan(int entry) {
+        long changed = 0;
+        final int[] locations = new int[PylosBitBoard.LOCATIONS];
+        for (int reserves = 2; reserves <= tablebase.getMaxReserves(); reserves++) {
+            final int n = PylosBitBoard.LOCATIONS - reserves;
+            for (int reservesToMove = 1; reservesToMove < reserves; reservesToMove++) {
+                final int reservesOther = reserves - reservesToMove;
+                long index = tablebase.getOffset(reservesToMove, reservesOther);
+                if (index < 0) continue;
+                final int k = PylosBitBoard.SPHERES_PER_PLAYER - reservesToMove;
+
+                for (long occupied : tablebase.getOccupancies(n)) {
+                    int j = 0;
+                    for (long m = occupied; m != 0; m &= m - 1) {
+                        locations[j++] = Long.numberOfTrailingZeros(m);
+                    }
+
+                    /* the colorings in the order of their rank: all n bit numbers with k bits set, ascending */
+                    final long end = 1L << n;
+                    for (long coloring = (1L << k) - 1; coloring < end; index++) {
+                        if (entry < 0) {
+                            if (tablebase.get(index) == PylosTablebase.UNKNOWN) {
+                                tablebase.set(index, PylosTablebase.DRAW);
+                                changed++;
+                            }
+                        } else if (tablebase.get(index) == entry) {
+                            long toMove = 0;
+                            for (long m = coloring; m != 0; m &= m - 1) {
+                                toMove |= 1L << locations[Long.numberOfTrailingZeros(m)];
+                            }
+                            assert tablebase.getIndex(toMove, occupied & ~toMove, reservesToMove, reservesOther) == index;
+                            board.load(toMove, occupied & ~toMove, reservesToMove, reservesOther);
+                            int result = solve();
+                            if (result != entry) {
+                                tablebase.set(index, result);
+                                changed++;
+                            }
+                        }
+
+                        if (coloring == 0) break;
+                        long lowest = coloring & -coloring;
+                        long ripple = coloring + lowest;
+                        coloring = ripple | (((coloring ^ ripple) >>> 2) / lowest);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * returns the entry of the position on 'board' (light to move) after looking at all its turns
+     */
+    private int solve() {
+        winDistance = -1;
+        lossDistance = 0;
+        allWon = true;
+
+        /* move a sphere to a higher level */
+        final long movable = board.getMoveTargets(LIGHT, targets);
+        for (long m = movable; m != 0; m &= m - 1) {
+            int from = Long.numberOfTrailingZeros(m);
+            for (long t = targets[from]; t != 0; t &= t - 1) {
+                int to = Long.numberOfTrailingZeros(t);
+                boolean square = board.move(from, to);
+                boolean done = square ? foldRemoves() : fold(getEntryAfterTurn());
+                board.undoMove(from, to);
+                if (done) return result();
+            }
+        }
+
+        /* add a reserve sphere, the last one loses if it doesn't complete a square */
+        for (long u = board.getUsable(); u != 0; u &= u - 1) {
+            int to = Long.numberOfTrailingZeros(u);
+            boolean square = board.add(LIGHT, to);
+            boolean done;
+            if (square) {
+                done = foldRemoves();
+            } else if (board.getReservesSize(LIGHT) == 0) {
+                done = fold(1);         // the other color won, at distance 0
+            } else {
+                done = fold(getEntryAfterTurn());
+            }
+            board.undoAdd(to);
+            if (done) return result();
+        }
+        return result();
+    }
+
+    /**
+     * folds the turns after a completed square: one remove, then a pass or another remove
+     */
+    private boolean foldRemoves() {
+        for (long r = board.getRemovable(LIGHT); r != 0; r &= r - 1) {
+            int first = Long.numberOfTrailingZeros(r);
+            board.remove(first);
+            boolean done = fold(getEntryAfterTurn());
+            for (long s = board.getRemovable(LIGHT); s != 0 && !done; s &= s - 1) {
+                int second = Long.numberOfTrailingZeros(s);
+                board.remove(second);
+                done = fold(getEntryAfterTurn());
+                board.undoRemove(LIGHT, second);
+            }
+            board.undoRemove(LIGHT, first);
+            if (done) return true;
+        }
+        return false;
+    }
+
+    /**
+     * returns the entry of the position on 'board' with dark to move, ESCAPE if it is not stored
+     */
+    private int getEntryAfterTurn() {
+        long index = tablebase.getIndex(board.getSpheres(DARK), board.getSpheres(LIGHT), board.getReservesSize(DARK), board.getReservesSize(LIGHT));
+        return index < 0 ? ESCAPE : tablebase.get(index);
+    }
+
+    /**
+     * takes the entry of the position after a turn into account (for the other color), returns true if the result of
+     * the position is known without looking at the other turns
+     */
+    private boolean fold(int entry) {
+        if (drawPass) {
+            /* a draw if every turn leads to a draw or a win of the other color */
+            allWon &= entry != ESCAPE && entry != PylosTablebase.UNKNOWN;
+            return !allWon;
+        }
+        boolean solved = entry != ESCAPE && entry != PylosTablebase.UNKNOWN && entry != PylosTablebase.DRAW
+                && PylosTablebase.getDistance(entry) < pass;
+        if (solved && PylosTablebase.isLoss(entry)) {
+            winDistance = PylosTablebase.getDistance(entry) + 1;
+            return true;
+        }
+        if (solved) {
+            lossDistance = Math.max(lossDistance, PylosTablebase.getDistance(entry) + 1);
+        } else {
+            allWon = false;
+        }
+        return false;
+    }
+
+    private int result() {
+        if (drawPass) return allWon ? PylosTablebase.DRAW : PylosTablebase.UNKNOWN;
+        if (winDistance >= 0) return winDistance + 1;
+        if (allWon) return lossDistance + 1;
+        return PylosTablebase.UNKNOWN;
+    }
+}
@@ -0,0 +1,177 @@
+package be.kuleuven.pylos.search;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table of search results, keyed by a 64 bit Zobrist hash (see
+ * PylosGameSimulator.getHash()).
+ * <p>
+ * All entries are preallocated in two long arrays, a probe or store doesn't allocate. An entry is packed in one long:
+ * <pre>
+ * vvvvvvvv vvvvvvvv ....aaaa aaaadddd ddddbbmm mmmmmmmm mmmmmmmm mmmmmmmm
+ *
+ * v: value (signed 16 bit)
+ * a: age, the generation of the search that stored the entry (see newSearch())
+ * d: depth, the remaining depth the value was searched with
+ * b: bound, EXACT, LOWER or UPPER
+ * m: best move (see PylosMove), PylosMove.NONE if not known
+ * </pre>
+ * The value 0 (MISS) is never a valid entry. The key is stored xor-ed with the entry, so a torn write by another
+ * thread shows up as a miss instead of as the entry of another position.
+ * <p>
+ * The entries are grouped in buckets of BUCKET_SIZE: an entry of the same position is always replaced, otherwise the
+ * entry of the bucket with the lowest depth, counting older searches as less deep, is replaced.
+ * <p>
+ * Scores of won or lost positions that depend on the distance to the root should be stored relative to the node
+ * (the distance from the node to the end of the game), the table itself doesn't interpret the values.
+ */
+public final class PylosTranspositionTable {
+
+    public static final long MISS = 0;
+
+    /* bounds */
+    public static final int LOWER = 1;      // the value is a lower bound, the search failed high
+    public static final int UPPER = 2;      // the value is an upper bound, the search failed low
+    public static final int EXACT = 3;
+
+    public static final int MAX_DEPTH = 0xFF;
+    public static final int MIN_VALUE = Short.MIN_VALUE;
+    public static final int MAX_VALUE = Short.MAX_VALUE;
+
+    private static final int BUCKET_SIZE = 4;
+    private static final int AGE_WEIGHT = 4;    // an entry of the previous search counts as 4 plies less deep
+
+    private static final int MOVE_BITS = 27;
+    private static final int BOUND_SHIFT = 27;
+    private static final int DEPTH_SHIFT = 29;
+    private static final int AGE_SHIFT = 37;
+    private static final int VALUE_SHIFT = 48;
+    private static final long MOVE_MASK = (1L << MOVE_BITS) - 1;
+
+    private final long[] keys;      // key ^ entry
+    private final long[] entries;
+    private final int mask;         // index of the first entry of a bucket = hash & mask
+    private int generation;
+
+    /**
+     * creates a table of 2^'log2Entries' entries (16 bytes each)
+     *
+     * @param log2Entries
+     */
+    public PylosTranspositionTable(int log2Entries) {
+        if (log2Entries < 2 || log2Entries > 30) {
+            throw new IllegalArgumentException("log2Entries should be between 2 and 30 (is " + log2Entries + ")");
+        }
+        keys = new long[1 << log2Entries];
+        entries = new long[1 << log2Entries];
+        mask = (1 << log2Entries) - BUCKET_SIZE;
+    }
+
+    /**
+     * removes all entries
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(entries, 0);
+        generation = 0;
+    }
+
+    /**
+     * starts a new search (typically a new move): entries of previous searches stay valid, but are replaced first
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * returns the entry of the position with hash 'key', or MISS
+     *
+     * @param key
+     * @return
+     */
+    public long probe(long key) {
+        final int base = (int) key & mask;
+        for (int i = base; i < base + BUCKET_SIZE; i++) {
+            long entry = entries[i];
+            if (entry != MISS && (keys[i] ^ entry) == key) {
+                return entry;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * stores the result of a search of 'depth' plies of the position with hash 'key'
+     *
+     * @param key
+     * @param depth
+     * @param value
+     * @param bound
+     * @param move  the best move, or PylosMove.NONE (keeps the move already stored for the position)
+     */
+    public void store(long key, int depth, int value, int bound, int move) {
+        assert depth >= 0 && depth <= MAX_DEPTH : "depth (=" + depth + ") is out of bounds";
+        assert value >= MIN_VALUE && value <= MAX_VALUE : "value (=" + value + ") is out of bounds";
+        assert bound == LOWER || bound == UPPER || bound == EXACT : "bound (=" + bound + ") is not valid";
+        assert (move & ~MOVE_MASK) == 0 : "move (=" + move + ") is not valid";
+
+        final int base = (int) key & mask;
+        int replace = base;
+        int replaceScore = Integer.MAX_VALUE;
+        for (int i = base; i < base + BUCKET_SIZE; i++) {
+            long entry = entries[i];
+            if (entry == MISS) {
+                if (replaceScore > Integer.MIN_VALUE) {
+                    replace = i;
+                    replaceScore = Integer.MIN_VALUE;
+                }
+                continue;
+            }
+            if ((keys[i] ^ entry) == key) {
+                if (move == 0) move = getMove(entry);
+                replace = i;
+                break;
+            }
+            int score = getDepth(entry) - AGE_WEIGHT * ((generation - getAge(entry)) & 0xFF);
+            if (score < replaceScore) {
+                replace = i;
+                replaceScore = score;
+            }
+        }
+
+        long entry = ((long) value << VALUE_SHIFT)
+                | ((long) generation << AGE_SHIFT)
+                | ((long) depth << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | move;
+        entries[replace] = entry;
+        keys[replace] = key ^ entry;
+    }
+
+    /* entries ---------------------------------------------------------------------------------------------------- */
+
+    public static int getValue(long entry) {
+        return (int) (entry >> VALUE_SHIFT);
+    }
+
+    public static int getDepth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    public static int getBound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & 0x3;
+    }
+
+    public static int getMove(long entry) {
+        return (int) (entry & MOVE_MASK);
+    }
+
+    private static int getAge(long entry) {
+        return (int) (entry >>> AGE_SHIFT) & 0xFF;
+    }
+
+}
@@ -0,0 +1,104 @@
+package be.kuleuven.pylos.game;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares PylosBitBoard with PylosBoard in the positions of random games: the queries of every position, and every
+ * add, move and remove with its undo.
+ */
+class PylosBitBoardTest {
+
+    private static final int GAMES = 10;
+
+    @Test
+    void queriesMatchTheBoard() {
+        long[] bitTargets = new long[PylosBitBoard.LOCATIONS];
+        long[] boardTargets = new long[PylosBitBoard.LOCATIONS];
+        for (long seed = 0; seed < GAMES; seed++) {
+            for (PylosBoardSnapshot position : RandomGames.positions(PylosBoard.STANDARD_SIZE, seed)) {
+                PylosBoard board = PylosBoard.fromSnapshot(position);
+                PylosBitBoard bitBoard = PylosBitBoard.fromSnapshot(position);
+                Assertions.assertEquals(position.toLong(), bitBoard.toLong());
+                Assertions.assertEquals(position.HASH, bitBoard.getHash());
+                Assertions.assertEquals(board.getUsedLocations(), bitBoard.getOccupied());
+                Assertions.assertEquals(board.getUsableLocations(), bitBoard.getUsable());
+                for (PylosPlayerColor color : PylosPlayerColor.values()) {
+                    int c = color.ordinal();
+                    Assertions.assertEquals(board.getReservesSize(color), bitBoard.getReservesSize(c));
+                    Assertions.assertEquals(board.getUsedLocations(color), bitBoard.getSpheres(c));
+                    Assertions.assertEquals(board.getRemovableLocations(color), bitBoard.getRemovable(c));
+                    Assertions.assertEquals(board.getFullSquares(color), bitBoard.getFullSquares(c));
+                    Assertions.assertEquals(board.getSquareThreats(color), bitBoard.getSquareThreats(c));
+                    Assertions.assertEquals(board.getBlockedSquares(color), bitBoard.getBlockedSquares(c));
+
+                    long movable = bitBoard.getMoveTargets(c, bitTargets);
+                    Assertions.assertEquals(board.getMoveTargets(color, boardTargets), movable);
+                    for (long m = movable; m != 0; m &= m - 1) {
+                        int from = Long.numberOfTrailingZeros(m);
+                        Assertions.assertEquals(boardTargets[from], bitTargets[from]);
+                        Assertions.assertEquals(bitTargets[from], bitBoard.getMoveTargets(from));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void makeAndUnmakeMatchTheBoard() {
+        int[] buffer = new int[PylosBoard.MAX_MOVES];
+        for (long seed = 0; seed < GAMES; seed++) {
+            for (PylosBoardSnapshot position : RandomGames.positions(PylosBoard.STANDARD_SIZE, seed)) {
+                PylosBoard board = PylosBoard.fromSnapshot(position);
+                PylosBitBoard bitBoard = PylosBitBoard.fromSnapshot(position);
+                for (PylosPlayerColor color : PylosPlayerColor.values()) {
+                    int c = color.ordinal();
+                    for (PylosGameState state : new PylosGameState[]{PylosGameState.MOVE, PylosGameState.REMOVE_FIRST}) {
+                        PylosGameSimulator simulator = new PylosGameSimulator(state, color, board);
+                        int n = simulator.generateMoves(buffer);
+                        for (int i = 0; i < n; i++) {
+                            int move = buffer[i];
+                            int from = PylosMove.getFrom(move);
+                            int to = PylosMove.getTo(move);
+                            simulator.apply(move);
+                            switch (PylosMove.getType(move)) {
+                                case PylosMove.ADD:
+                                    Assertions.assertEquals(simulator.getState() == PylosGameState.REMOVE_FIRST, bitBoard.add(c, to));
+                                    break;
+                                case PylosMove.MOVE:
+                                    Assertions.assertEquals(simulator.getState() == PylosGameState.REMOVE_FIRST, bitBoard.move(from, to));
+                                    break;
+                                default:
+                                    bitBoard.remove(from);
+                                    break;
+                            }
+                            assertSameBoard(board, bitBoard);
+
+                            simulator.undo();
+                            switch (PylosMove.getType(move)) {
+                                case PylosMove.ADD:
+                                    bitBoard.undoAdd(to);
+                                    break;
+                                case PylosMove.MOVE:
+                                    bitBoard.undoMove(from, to);
+                                    break;
+                                default:
+                                    bitBoard.undoRemove(c, from);
+                                    break;
+                            }
+                            assertSameBoard(board, bitBoard);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameBoard(PylosBoard board, PylosBitBoard bitBoard) {
+        Assertions.assertEquals(board.toLong(), bitBoard.toLong());
+        Assertions.assertEquals(board.getHash(), bitBoard.getHash());
+        for (PylosPlayerColor color : PylosPlayerColor.values()) {
+            Assertions.assertEquals(board.getReservesSize(color), bitBoard.getReservesSize(color));
+        }
+    }
+}
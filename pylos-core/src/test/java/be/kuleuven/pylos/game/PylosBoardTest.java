@@ -0,0 +1,273 @@
+package be.kuleuven.pylos.game;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the incremental state of PylosBoard (the long state, hash, reserves, square counts and masks) and its move
+ * generator with the same state recomputed from the locations, spheres and squares, in random games of every size.
+ */
+class PylosBoardTest {
+
+    private static final int MIN_SIZE = 2;
+    private static final int MAX_SIZE = 5;
+    private static final int GAMES = 10;
+
+    @Test
+    void applyAndUndoKeepTheBoardConsistent() {
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+            for (long seed = 0; seed < GAMES; seed++) {
+                PylosBoard board = new PylosBoard(size);
+                PylosGameSimulator simulator = new PylosGameSimulator(PylosGameState.MOVE, PylosPlayerColor.LIGHT, board);
+                int[] buffer = new int[board.getMaxMoves()];
+                Random random = new Random(seed);
+
+                List<PylosBoardSnapshot> positions = new ArrayList<>();
+                List<PylosGameState> states = new ArrayList<>();
+                List<PylosPlayerColor> colors = new ArrayList<>();
+                while (true) {
+                    assertConsistent(board);
+                    assertMoves(board, simulator.getState(), simulator.getColor());
+                    positions.add(board.snapshot());
+                    states.add(simulator.getState());
+                    colors.add(simulator.getColor());
+                    if (positions.size() > RandomGames.MAX_STEPS
+                            || RandomGames.applyRandomMove(simulator, buffer, random) == PylosMove.NONE) break;
+                }
+
+                for (int i = simulator.getUndoSize() - 1; i >= 0; i--) {
+                    simulator.undo();
+                    assertSamePosition(positions.get(i), board);
+                    assertConsistent(board);
+                    Assertions.assertEquals(states.get(i), simulator.getState());
+                    Assertions.assertEquals(colors.get(i), simulator.getColor());
+                }
+            }
+        }
+    }
+
+    @Test
+    void restoreRebuildsTheSnapshot() {
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+            List<PylosBoardSnapshot> positions = RandomGames.positions(size, size);
+            PylosBoard reused = PylosBoard.fromSnapshot(positions.get(positions.size() - 1));
+            for (PylosBoardSnapshot position : positions) {
+                PylosBoard board = PylosBoard.fromSnapshot(position);
+                assertSamePosition(position, board);
+                assertConsistent(board);
+
+                reused.restore(position);
+                assertSamePosition(position, reused);
+                assertConsistent(reused);
+                for (PylosPlayerColor color : PylosPlayerColor.values()) {
+                    Assertions.assertArrayEquals(generateMoves(board, PylosGameState.MOVE, color), generateMoves(reused, PylosGameState.MOVE, color));
+                }
+            }
+        }
+    }
+
+    @Test
+    void loadRebuildsTheLongState() {
+        for (long seed = 0; seed < GAMES; seed++) {
+            for (PylosBoardSnapshot position : RandomGames.positions(PylosBoard.STANDARD_SIZE, seed)) {
+                PylosBoard board = PylosBoard.fromLong(position.toLong());
+                Assertions.assertEquals(position.toLong(), board.toLong());
+                Assertions.assertEquals(position.HASH, board.getHash());
+                for (PylosPlayerColor color : PylosPlayerColor.values()) {
+                    Assertions.assertEquals(position.getReservesSize(color), board.getReservesSize(color));
+                }
+                assertConsistent(board);
+            }
+        }
+    }
+
+    @Test
+    void anyReserveSphereCanBeAddedAndRemoved() {
+        for (PylosBoardSnapshot position : RandomGames.positions(PylosBoard.STANDARD_SIZE, 0)) {
+            PylosBoard board = PylosBoard.fromSnapshot(position);
+            long usable = board.getUsableLocations();
+            if (usable == 0) continue;
+            PylosLocation to = board.getLocations()[Long.numberOfTrailingZeros(usable)];
+            for (PylosPlayerColor color : PylosPlayerColor.values()) {
+                for (PylosSphere sphere : board.getSpheres(color)) {
+                    if (!sphere.isReserve()) continue;
+                    board.add(sphere, to);
+                    assertConsistent(board);
+                    Assertions.assertSame(to, sphere.getLocation());
+                    board.remove(sphere);
+                    assertConsistent(board);
+                    Assertions.assertSame(sphere, board.getReserve(color));
+                }
+            }
+        }
+    }
+
+    /* the state recomputed from the locations ------------------------------------------------------------------ */
+
+    /**
+     * asserts that the incremental state of 'board' matches its locations, spheres and squares
+     */
+    static void assertConsistent(PylosBoard board) {
+        PylosLocation[] locations = board.getLocations();
+
+        long[] state = new long[board.toLongArray().length];
+        long hash = 0;
+        for (PylosLocation location : locations) {
+            PylosSphere sphere = location.getSphere();
+            if (sphere == null) continue;
+            Assertions.assertSame(location, sphere.getLocation());
+            int color = sphere.PLAYER_COLOR.ordinal();
+            state[location.ID / 32] |= 1L << ((location.ID % 32) * 2 + color);
+            hash ^= PylosZobrist.LOCATION[location.ID][color];
+        }
+        Assertions.assertArrayEquals(state, board.toLongArray(), "state");
+        Assertions.assertEquals(hash, board.getHash(), "hash");
+
+        for (PylosPlayerColor color : PylosPlayerColor.values()) {
+            int reserves = 0;
+            for (PylosSphere sphere : board.getSpheres(color)) {
+                if (sphere.isReserve()) reserves++;
+            }
+            Assertions.assertEquals(reserves, board.getReservesSize(color), "reserves of " + color);
+            if (reserves > 0) Assertions.assertTrue(board.getReserve(color).isReserve());
+        }
+
+        for (PylosPlayerColor color : PylosPlayerColor.values()) {
+            int full = 0;
+            int threats = 0;
+            int blocked = 0;
+            int fullMask = 0;
+            int threatMask = 0;
+            int blockedMask = 0;
+            PylosSquare[] squares = board.getAllSquares();
+            for (int s = 0; s < squares.length; s++) {
+                int own = 0;
+                int used = 0;
+                for (PylosLocation location : squares[s].getLocations()) {
+                    if (location.isUsed()) used++;
+                    if (location.isUsed() && location.getSphere().PLAYER_COLOR == color) own++;
+                }
+                Assertions.assertEquals(own, squares[s].getInSquare(color));
+                Assertions.assertEquals(used, squares[s].getInSquare());
+                if (own == 4) {
+                    full++;
+                    fullMask |= 1 << s;
+                } else if (own == 3 && used == 3) {
+                    threats++;
+                    threatMask |= 1 << s;
+                } else if (own == 3) {
+                    blocked++;
+                    blockedMask |= 1 << s;
+                }
+            }
+            Assertions.assertEquals(full, board.getFullSquareCount(color), "full squares of " + color);
+            Assertions.assertEquals(threats, board.getSquareThreatCount(color), "square threats of " + color);
+            Assertions.assertEquals(blocked, board.getBlockedSquareCount(color), "blocked squares of " + color);
+            if (board.isStandard()) {
+                Assertions.assertEquals(fullMask, board.getFullSquares(color), "full squares of " + color);
+                Assertions.assertEquals(threatMask, board.getSquareThreats(color), "square threats of " + color);
+                Assertions.assertEquals(blockedMask, board.getBlockedSquares(color), "blocked squares of " + color);
+            }
+        }
+
+        if (board.isStandard()) {
+            long usable = 0;
+            for (PylosLocation location : locations) {
+                if (isUsable(location)) usable |= 1L << location.ID;
+            }
+            Assertions.assertEquals(usable, board.getUsableLocations(), "usable locations");
+            for (PylosPlayerColor color : PylosPlayerColor.values()) {
+                long used = 0;
+                long removable = 0;
+                for (PylosLocation location : locations) {
+                    if (!location.isUsed() || location.getSphere().PLAYER_COLOR != color) continue;
+                    used |= 1L << location.ID;
+                    if (!hasAbove(location)) removable |= 1L << location.ID;
+                }
+                Assertions.assertEquals(used, board.getUsedLocations(color), "used locations of " + color);
+                Assertions.assertEquals(removable, board.getRemovableLocations(color), "removable locations of " + color);
+            }
+        }
+    }
+
+    /**
+     * asserts that generateMoves(..) returns the same moves as an enumeration of the spheres and locations
+     */
+    static void assertMoves(PylosBoard board, PylosGameState state, PylosPlayerColor color) {
+        int[] expected = new int[board.getMaxMoves()];
+        int n = 0;
+        PylosLocation[] locations = board.getLocations();
+        if (state == PylosGameState.MOVE) {
+            for (PylosLocation from : locations) {
+                if (!from.isUsed() || from.getSphere().PLAYER_COLOR != color || hasAbove(from)) continue;
+                for (PylosLocation to : locations) {
+                    if (isUsable(to) && from.Z < to.Z && !from.isBelow(to)) {
+                        expected[n++] = PylosMove.move(from.getSphere().ID, from.ID, to.ID);
+                    }
+                }
+            }
+            if (board.getReservesSize(color) > 0) {
+                for (PylosLocation to : locations) {
+                    if (isUsable(to)) expected[n++] = PylosMove.add(board.getReserve(color).ID, to.ID);
+                }
+            }
+        } else if (state == PylosGameState.REMOVE_FIRST || state == PylosGameState.REMOVE_SECOND) {
+            for (PylosLocation from : locations) {
+                if (from.isUsed() && from.getSphere().PLAYER_COLOR == color && !hasAbove(from)) {
+                    expected[n++] = PylosMove.remove(from.getSphere().ID, from.ID);
+                }
+            }
+            if (state == PylosGameState.REMOVE_SECOND) expected[n++] = PylosMove.pass();
+        }
+        int[] moves = generateMoves(board, state, color);
+        int[] sortedMoves = moves.clone();
+        Arrays.sort(sortedMoves);
+        expected = Arrays.copyOf(expected, n);
+        Arrays.sort(expected);
+        Assertions.assertArrayEquals(expected, sortedMoves, "moves of " + color + " in " + state);
+    }
+
+    /**
+     * asserts that 'board' holds exactly the position of 'expected': every sphere id and the order of the reserves
+     */
+    static void assertSamePosition(PylosBoardSnapshot expected, PylosBoard board) {
+        PylosBoardSnapshot actual = board.snapshot();
+        Assertions.assertEquals(expected.SIZE, actual.SIZE);
+        Assertions.assertArrayEquals(expected.toLongArray(), actual.toLongArray(), "state");
+        Assertions.assertEquals(expected.HASH, actual.HASH, "hash");
+        for (int i = 0; i < board.getLocations().length; i++) {
+            Assertions.assertEquals(expected.getSphere(i), actual.getSphere(i), "sphere at location " + i);
+        }
+        for (int c = 0; c < 2; c++) {
+            Assertions.assertEquals(expected.getReservesSize(c), actual.getReservesSize(c));
+            for (int i = 0; i < expected.getReservesSize(c); i++) {
+                Assertions.assertEquals(expected.getReserve(c, i), actual.getReserve(c, i), "reserve " + i + " of color " + c);
+            }
+        }
+    }
+
+    static int[] generateMoves(PylosBoard board, PylosGameState state, PylosPlayerColor color) {
+        int[] buffer = new int[board.getMaxMoves()];
+        return Arrays.copyOf(buffer, board.generateMoves(state, color, buffer));
+    }
+
+    private static boolean isUsable(PylosLocation location) {
+        if (location.isUsed()) return false;
+        for (PylosLocation below : location.getBelow()) {
+            if (!below.isUsed()) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasAbove(PylosLocation location) {
+        for (PylosLocation above : location.getAbove()) {
+            if (above.isUsed()) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package be.kuleuven.pylos.game;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks canonicalize(..) and the location maps of PylosSymmetry in the positions of random games.
+ */
+class PylosSymmetryTest {
+
+    private static final int GAMES = 10;
+
+    @Test
+    void canonicalizeReturnsTheSmallestVariant() {
+        for (long seed = 0; seed < GAMES; seed++) {
+            for (PylosBoardSnapshot position : RandomGames.positions(PylosBoard.STANDARD_SIZE, seed)) {
+                long state = position.toLong();
+                long key = PylosSymmetry.canonicalize(state);
+                long canonical = PylosSymmetry.getState(key);
+                int t = PylosSymmetry.getTransform(key);
+                Assertions.assertEquals(canonical, PylosSymmetry.transform(state, t));
+                Assertions.assertEquals(canonical, PylosBoard.fromLong(canonical).toLong());
+                for (int u = 0; u < PylosSymmetry.TRANSFORMS; u++) {
+                    long variant = PylosSymmetry.transform(state, u);
+                    Assertions.assertTrue(canonical <= variant);
+                    Assertions.assertEquals(canonical, PylosSymmetry.getState(PylosSymmetry.canonicalize(variant)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void locationMapsAreInverse() {
+        for (long seed = 0; seed < GAMES; seed++) {
+            for (PylosBoardSnapshot position : RandomGames.positions(PylosBoard.STANDARD_SIZE, seed)) {
+                long state = position.toLong();
+                for (int t = 0; t < PylosSymmetry.TRANSFORMS; t++) {
+                    long transformed = PylosSymmetry.transform(state, t);
+                    for (int location = 0; location < PylosBitBoard.LOCATIONS; location++) {
+                        int canonical = PylosSymmetry.toCanonicalLocation(t, location);
+                        Assertions.assertEquals(location, PylosSymmetry.toOriginalLocation(t, canonical));
+                        Assertions.assertEquals((state >>> (location * 2)) & 3, (transformed >>> (canonical * 2)) & 3,
+                                "location " + location + " of transform " + t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package be.kuleuven.pylos.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random games on PylosGameSimulator, the positions the tests compare the incremental state of the boards in.
+ */
+final class RandomGames {
+
+    static final int MAX_STEPS = 300;       // random play can take very long to complete a game
+
+    private RandomGames() {
+    }
+
+    /**
+     * applies a random legal move on 'simulator' and returns it, PylosMove.NONE if the game is over
+     */
+    static int applyRandomMove(PylosGameSimulator simulator, int[] buffer, Random random) {
+        if (simulator.getState() == PylosGameState.COMPLETED) return PylosMove.NONE;
+        int n = simulator.generateMoves(buffer);
+        if (n == 0) return PylosMove.NONE;
+        int move = buffer[random.nextInt(n)];
+        simulator.apply(move);
+        return move;
+    }
+
+    /**
+     * returns the snapshots of every position of a random game on a board of 'size' layers
+     */
+    static List<PylosBoardSnapshot> positions(int size, long seed) {
+        PylosBoard board = new PylosBoard(size);
+        PylosGameSimulator simulator = new PylosGameSimulator(PylosGameState.MOVE, PylosPlayerColor.LIGHT, board);
+        int[] buffer = new int[board.getMaxMoves()];
+        Random random = new Random(seed);
+        List<PylosBoardSnapshot> positions = new ArrayList<>();
+        positions.add(board.snapshot());
+        for (int step = 0; step < MAX_STEPS && applyRandomMove(simulator, buffer, random) != PylosMove.NONE; step++) {
+            positions.add(board.snapshot());
+        }
+        return positions;
+    }
+}
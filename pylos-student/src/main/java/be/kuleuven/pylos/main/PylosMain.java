@@ -3,7 +3,9 @@ package be.kuleuven.pylos.main;
 import be.kuleuven.pylos.battle.Battle;
 import be.kuleuven.pylos.battle.BattleMT;
 import be.kuleuven.pylos.battle.BattleResult;
+import be.kuleuven.pylos.battle.PlayoutSpeed;
 import be.kuleuven.pylos.battle.RoundRobin;
+import be.kuleuven.pylos.battle.SearchSpeedup;
 import be.kuleuven.pylos.game.PylosBoard;
 import be.kuleuven.pylos.game.PylosGame;
 import be.kuleuven.pylos.game.PylosGameObserver;
@@ -13,8 +15,19 @@ import be.kuleuven.pylos.player.PylosPlayerType;
 import be.kuleuven.pylos.player.codes.PlayerFactoryCodes;
 import be.kuleuven.pylos.player.codes.PylosPlayerBestFit;
 import be.kuleuven.pylos.player.codes.PylosPlayerMiniMax;
+import be.kuleuven.pylos.player.codes.PylosPlayerPVS;
+import be.kuleuven.pylos.player.codes.PylosPlayerYBWC;
 import be.kuleuven.pylos.player.student.StudentPlayerGilEnJonas;
-
+import be.kuleuven.pylos.search.PylosOpeningBook;
+import be.kuleuven.pylos.search.PylosOpeningBookGenerator;
+import be.kuleuven.pylos.search.PylosTablebase;
+import be.kuleuven.pylos.search.PylosTablebaseGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -29,6 +42,10 @@ public class PylosMain {
         startBattle();
         //startBattleMultithreaded();
         //startRoundRobinTournament();
+        //startSearchSpeedup();
+        //startPlayoutSpeed();
+        //startTablebaseBattle();
+        //startOpeningBookBattle();
     }
 
     public static void startSingleGame() {
@@ -110,4 +127,88 @@ public class PylosMain {
 
         RoundRobin.printWinsMatrix(results, pFactory.getTypes());
     }
+
+    public static void startSearchSpeedup() {
+        int nGames = 4;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        PylosPlayerType reference = new PylosPlayerType("MiniMax 3") {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMiniMax(3);
+            }
+        };
+
+        final int depth = 10;
+        SearchSpeedup.measure(reference, nGames, threads -> new PylosPlayerYBWC(depth, threads), maxThreads);
+    }
+
+    public static void startPlayoutSpeed() {
+        int nPlayouts = 200000;
+        PlayoutSpeed.measure(nPlayouts);
+    }
+
+    public static void startTablebaseBattle() {
+        int nRuns = 100;
+
+        /* generated once, 3 reserves take about 560 MB */
+        final PylosTablebase tablebase;
+        try {
+            Path file = Paths.get("pylos-tablebase-3.bin");
+            tablebase = Files.exists(file) ? PylosTablebase.open(file) : PylosTablebaseGenerator.generate(file, 3);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final int depth = 4;
+        PylosPlayerType p1 = new PylosPlayerType("MiniMax " + depth + " tablebase") {
+            @Override
+            public PylosPlayer create() {
+                PylosPlayerMiniMax player = new PylosPlayerMiniMax(depth);
+                player.setTablebase(tablebase);
+                return player;
+            }
+        };
+
+        PylosPlayerType p2 = new PylosPlayerType("MiniMax " + depth) {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerMiniMax(depth);
+            }
+        };
+
+        Battle.play(p1, p2, nRuns);
+    }
+
+    public static void startOpeningBookBattle() {
+        int nRuns = 100;
+
+        /* generated once, 6 plies searched 8 deep take a few minutes */
+        final PylosOpeningBook book;
+        try {
+            Path file = Paths.get("pylos-book.bin");
+            book = Files.exists(file) ? PylosOpeningBook.open(file) : PylosOpeningBookGenerator.generate(file, 6, () -> new PylosPlayerPVS(8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final int depth = 4;
+        PylosPlayerType p1 = new PylosPlayerType("PVS " + depth + " opening book") {
+            @Override
+            public PylosPlayer create() {
+                PylosPlayerPVS player = new PylosPlayerPVS(depth);
+                player.setOpeningBook(book);
+                return player;
+            }
+        };
+
+        PylosPlayerType p2 = new PylosPlayerType("PVS " + depth) {
+            @Override
+            public PylosPlayer create() {
+                return new PylosPlayerPVS(depth);
+            }
+        };
+
+        Battle.play(p1, p2, nRuns);
+    }
 }
@@ -44,5 +44,14 @@ public class PlayerFactoryStudent extends PylosPlayerFactory {
                 return new StudentPlayerGilEnJonas();
             }
         });
+
+        add(new PylosPlayerType("Wij - evaluation cache") {
+            @Override
+            public PylosPlayer create() {
+                StudentPlayerGilEnJonas player = new StudentPlayerGilEnJonas();
+                player.setEvaluationCache(true);
+                return player;
+            }
+        });
     }
 }
@@ -2,15 +2,43 @@ package be.kuleuven.pylos.player.student;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.search.PylosEvaluationCache;
+import be.kuleuven.pylos.search.PylosEvaluator;
+import be.kuleuven.pylos.search.PylosOpeningBook;
 
 import java.util.ArrayList;
 
 public class StudentPlayerGilEnJonas extends PylosPlayer {
     private final int MAX_DEPTH = 12;
-    private final BoardEvaluator evaluator = new BoardEvaluator();
+    private final int QUIESCENCE_MAX_DEPTH = 6;
+    private final int QUIESCENCE_NODES = 20000;
+    private final int EVALUATION_CACHE_LOG2_ENTRIES = 16;
+    private PylosEvaluator evaluator = new BoardEvaluator();
+    private PylosEvaluationCache evaluationCache;    // null if not enabled
+    private PylosOpeningBook book;
+    private int quiescenceNodes;
+
+    public void setOpeningBook(PylosOpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * evaluates the leaves through a PylosEvaluationCache if 'enabled' and shouts its hit rate after every search.
+     * The board keeps the square counts of the evaluation up to date, so the cache only pays off for a more expensive
+     * evaluation.
+     *
+     * @param enabled
+     */
+    public void setEvaluationCache(boolean enabled) {
+        this.evaluationCache = enabled ? new PylosEvaluationCache(new BoardEvaluator(), EVALUATION_CACHE_LOG2_ENTRIES) : null;
+        this.evaluator = enabled ? this.evaluationCache : new BoardEvaluator();
+    }
 
     @Override
     public void doMove(PylosGameIF game, PylosBoard board) {
+        if (book != null && book.play(game, board, this.PLAYER_COLOR)) {
+            return;
+        }
         Move bestMove = null;
         if (board.getReservesSize(this.PLAYER_COLOR) == board.SPHERES_PER_PLAYER || board.getReservesSize(this.PLAYER_COLOR.other()) == board.SPHERES_PER_PLAYER) {
             bestMove = doFirstMove(board);
@@ -18,7 +46,9 @@ public class StudentPlayerGilEnJonas extends PylosPlayer {
         if (bestMove == null) {
             Move root = new Move();
             StudentPlayerGameSimulator simulator = new StudentPlayerGameSimulator(game.getState(), this.PLAYER_COLOR, board);
+            this.startSearch();
             bestMove = minimax(simulator, board, root, MAX_DEPTH, Integer.MIN_VALUE, Integer.MAX_VALUE, true);
+            this.endSearch();
         }
 
         assert bestMove != null;
@@ -31,7 +61,9 @@ public class StudentPlayerGilEnJonas extends PylosPlayer {
     public void doRemove(PylosGameIF game, PylosBoard board) {
         Move root = new Move();
         StudentPlayerGameSimulator simulator = new StudentPlayerGameSimulator(game.getState(), this.PLAYER_COLOR, board);
+        this.startSearch();
         Move bestMove = minimax(simulator, board, root, MAX_DEPTH, Integer.MIN_VALUE, Integer.MAX_VALUE, true);
+        this.endSearch();
 
         assert bestMove != null;
         PylosSphere bestSphere = bestMove.getSphere();
@@ -42,7 +74,9 @@ public class StudentPlayerGilEnJonas extends PylosPlayer {
     public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
         Move root = new Move();
         StudentPlayerGameSimulator simulator = new StudentPlayerGameSimulator(game.getState(), this.PLAYER_COLOR, board);
+        this.startSearch();
         Move bestMove = minimax(simulator, board, root, MAX_DEPTH, Integer.MIN_VALUE, Integer.MAX_VALUE, true);
+        this.endSearch();
 
         assert bestMove != null;
         if (bestMove.getMoveType() == MoveType.PASS) {
@@ -53,6 +87,19 @@ public class StudentPlayerGilEnJonas extends PylosPlayer {
         }
     }
 
+    private void startSearch() {
+        this.quiescenceNodes = 0;
+        if (this.evaluationCache != null) {
+            this.evaluationCache.resetStatistics();
+        }
+    }
+
+    private void endSearch() {
+        if (this.evaluationCache != null) {
+            this.getObserver().shout(String.format("Evaluation cache hit rate: %.0f%% of %d leaves", 100 * this.evaluationCache.getHitRate(), this.evaluationCache.getProbes()));
+        }
+    }
+
     private Move doFirstMove(PylosBoard board) {
         final int z = 0;
         for (int i = 0; i < 4; i++) {
@@ -69,9 +116,9 @@ public class StudentPlayerGilEnJonas extends PylosPlayer {
     }
 
     private Move minimax(StudentPlayerGameSimulator simulator, PylosBoard board, Move parent, int depth, int alpha, int beta, boolean doLMRReduction) {
-        // Recursion base case
+        // Recursion base case, square completions and their removes are searched further
         if (depth <= 0 || simulator.getState() == PylosGameState.COMPLETED) {
-            parent.setEvaluationScore(evaluator.evaluateBoard(board, this.PLAYER_COLOR));
+            parent.setEvaluationScore(quiesce(simulator, board, QUIESCENCE_MAX_DEPTH, alpha, beta));
             return parent;
         }
 
@@ -127,6 +174,63 @@ public class StudentPlayerGilEnJonas extends PylosPlayer {
         return bestMove;
     }
 
+    private int quiesce(StudentPlayerGameSimulator simulator, PylosBoard board, int depth, int alpha, int beta) {
+        final int standPat = evaluator.evaluate(board, this.PLAYER_COLOR);
+        if (depth <= 0 || simulator.getState() == PylosGameState.COMPLETED || this.quiescenceNodes >= QUIESCENCE_NODES) {
+            return standPat;
+        }
+        this.quiescenceNodes++;
+
+        // At the start of a turn the player can stop (stand pat), the removes after a square are forced
+        final PylosPlayerColor color = simulator.getColor();
+        final boolean maximize = color == this.PLAYER_COLOR;
+        final boolean startOfTurn = simulator.getState() == PylosGameState.MOVE;
+        int bestScore = maximize ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        if (startOfTurn) {
+            bestScore = standPat;
+            if (maximize ? bestScore >= beta : bestScore <= alpha) {
+                return bestScore;
+            }
+        }
+
+        Move parent = new Move();
+        parent.generateAllLegalMoves(simulator.getState(), color, board);
+        for (final Move child : parent.getChildren()) {
+            if (startOfTurn && !completesSquare(child.getEndLocation(), color)) {
+                continue;
+            }
+            simulator.doMove(child);
+            if (startOfTurn && simulator.getState() != PylosGameState.REMOVE_FIRST) {
+                // The sphere was moved out of the square itself
+                simulator.undoMove(child);
+                continue;
+            }
+            final int score = quiesce(simulator, board, depth - 1, alpha, beta);
+            simulator.undoMove(child);
+
+            if (maximize) {
+                bestScore = Math.max(bestScore, score);
+                alpha = Math.max(alpha, bestScore);
+            } else {
+                bestScore = Math.min(bestScore, score);
+                beta = Math.min(beta, bestScore);
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        return bestScore == Integer.MIN_VALUE || bestScore == Integer.MAX_VALUE ? standPat : bestScore;
+    }
+
+    private static boolean completesSquare(PylosLocation location, PylosPlayerColor color) {
+        for (final PylosSquare square : location.getSquares()) {
+            if (square.getInSquare(color) == 3 && square.getInSquare() == 3) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Move evaluateMove(StudentPlayerGameSimulator simulator, PylosBoard board, Move move, int depth, int alpha, int beta, boolean doLMRReduction) {
         if (doLMRReduction && move.getMoveType() == MoveType.ADD) {
             return minimax(simulator, board, move, depth - 2, alpha, beta, false);
@@ -161,7 +265,7 @@ class StudentPlayerGameSimulator extends PylosGameSimulator {
     }
 }
 
-class BoardEvaluator {
+class BoardEvaluator implements PylosEvaluator {
     // evaluateReserveSpheres
     private static final int RESERVE_SPHERE_WEIGHT = 10;
 
@@ -171,7 +275,8 @@ class BoardEvaluator {
     private static final int BLOCK_OTHER_SQUARE_BONUS = 2;
     private static final int SQUARE_WEIGHT = 5;
 
-    public int evaluateBoard(PylosBoard board, PylosPlayerColor playerColor) {
+    @Override
+    public int evaluate(PylosBoard board, PylosPlayerColor playerColor) {
         return (this.evaluateReserveSpheres(board, playerColor) +
                 this.evaluateSquares(board, playerColor)
         );
@@ -184,25 +289,16 @@ class BoardEvaluator {
     }
 
     private int evaluateSquares(PylosBoard board, PylosPlayerColor playerColor) {
-        int own_score = 0;
-        int other_score = 0;
-
-        for (PylosSquare square : board.getAllSquares()) {
-            final int own_spheres = square.getInSquare(playerColor);
-            final int other_spheres = square.getInSquare(playerColor.other());
-
-            // Nice, you made a full square!
-            if (own_spheres == 4) own_score += FULL_SQUARE_BONUS;
-            else if (other_spheres == 4) other_score += FULL_SQUARE_BONUS;
-
-            // Nice, you almost made a full square!
-            else if (own_spheres == 3 && other_spheres == 0) own_score += ALMOST_FULL_SQUARE_BONUS;
-            else if (other_spheres == 3 && own_spheres == 0) other_score += ALMOST_FULL_SQUARE_BONUS;
-
-            // Nice, you blocked a square of your opponent!
-            else if (own_spheres == 1 && other_spheres == 3) own_score += BLOCK_OTHER_SQUARE_BONUS;
-            else if (other_spheres == 1 && own_spheres == 3) other_score += BLOCK_OTHER_SQUARE_BONUS;
-        }
+        final PylosPlayerColor otherColor = playerColor.other();
+
+        // full squares, almost full squares (3 + an empty spot) and blocked squares of the opponent (3 + 1 of ours),
+        // the board keeps these counts up to date on every move
+        final int own_score = board.getFullSquareCount(playerColor) * FULL_SQUARE_BONUS
+                + board.getSquareThreatCount(playerColor) * ALMOST_FULL_SQUARE_BONUS
+                + board.getBlockedSquareCount(otherColor) * BLOCK_OTHER_SQUARE_BONUS;
+        final int other_score = board.getFullSquareCount(otherColor) * FULL_SQUARE_BONUS
+                + board.getSquareThreatCount(otherColor) * ALMOST_FULL_SQUARE_BONUS
+                + board.getBlockedSquareCount(playerColor) * BLOCK_OTHER_SQUARE_BONUS;
         return (own_score - other_score) * SQUARE_WEIGHT;
     }
 }